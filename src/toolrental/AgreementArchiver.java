@@ -0,0 +1,431 @@
+package toolrental;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a copy of every printed rental agreement, written to disk from a background thread. <br/>
+ * The checkout threads only queue the agreement and return at once. The writer thread takes all the agreements
+ * waiting, appends them to the current segment file with one write, and makes them durable with one fsync for
+ * the whole batch, so the cost of the fsync is shared by all the agreements written together. <br/>
+ * Segment files are named agreements-000001.seg, agreements-000002.seg, and so on, and a new one is started when
+ * the current one is full. Each record is: length of the checkout id, length of the agreement, CRC32 of the checkout
+ * id and agreement, CRC32 of these three numbers, the checkout id in UTF-8 and the agreement. <br/>
+ * An index of the offset of each agreement by checkout id is kept in memory, and rebuilt from the record headers
+ * when the archive is opened again. A record with a good header that goes past the end of the newest segment was cut
+ * short by a crash, and is removed then. Anything else is corruption: a header that fails its CRC, or a record cut
+ * short in an older segment. The segment is indexed up to there and left as it is, the error is reported by
+ * getIndexErrors(), and new agreements are written to a new segment.
+ * @author Binod
+ *
+ */
+public class AgreementArchiver {
+
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private static final String SEGMENT_PREFIX = "agreements-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int RECORD_HEADER_SIZE = 4 + 4 + 4 + 4;
+	//Bytes of the header covered by the header CRC.
+	private static final int HEADER_CRC_OFFSET = 4 + 4 + 4;
+
+	//Most agreements written with one write and one fsync.
+	private static final int MAX_BATCH = 256;
+
+	private final Path directory;
+	private final long segmentSize;
+	private final BlockingQueue<Entry> queue;
+	private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+	//Corrupted segments found when opening the archive.
+	private final List<String> indexErrors = new ArrayList<String>();
+	private final Thread writerThread;
+	private volatile boolean closed = false;
+
+	//Only used by the writer thread once it is started.
+	private int segmentNumber;
+	private FileChannel segment;
+
+	public AgreementArchiver(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens the archive of a directory, creating it if needed, and indexes the agreements already in it.
+	 * @param directory
+	 * @param segmentSize size a segment file grows to before the next one is started.
+	 * @param capacity maximum number of agreements waiting to be written. When it is reached,
+	 * archive() waits, so that no agreement is ever dropped.
+	 * @throws IOException if the directory or its segments can't be read.
+	 */
+	public AgreementArchiver(Path directory, long segmentSize, int capacity) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.queue = new ArrayBlockingQueue<Entry>(capacity);
+
+		Files.createDirectories(directory);
+		List<Integer> segmentNumbers = new ArrayList<Integer>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for(Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					segmentNumbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					//Not a segment.
+				}
+			}
+		}
+		Collections.sort(segmentNumbers);
+		boolean newestIntact = true;
+		for(int i = 0; i < segmentNumbers.size(); i++) {
+			newestIntact = indexSegment(segmentNumbers.get(i), i == segmentNumbers.size() - 1);
+		}
+		this.segmentNumber = segmentNumbers.isEmpty() ? 1 : segmentNumbers.get(segmentNumbers.size() - 1);
+		if(!newestIntact) {
+			//Records appended after the corruption could not be indexed again.
+			segmentNumber++;
+		}
+		this.segment = openSegment(segmentNumber);
+
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeAgreements();
+			}
+		}, "agreement-archiver");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Queues an agreement to be archived. <br/>
+	 * Failures to write an agreement are also printed, so that they are seen even if the future is not checked.
+	 * @param checkoutId id of the checkout, to read the agreement back. A later agreement with the same id replaces it.
+	 * @param agreement the rendered agreement. It should not be changed afterwards.
+	 * @return a future completed once the agreement is durably on disk, or completed with the error if it can't be written.
+	 * @throws InterruptedException if interrupted while waiting for space in the queue.
+	 * @throws IllegalStateException if the archiver is closed.
+	 */
+	public Future<Void> archive(String checkoutId, byte[] agreement) throws InterruptedException {
+		if(closed) {
+			throw new IllegalStateException("Agreement archiver is closed");
+		}
+		Entry entry = new Entry(checkoutId, agreement);
+		queue.put(entry);
+		//Closed while queuing: the writer may have stopped before this agreement. If it is still in the queue,
+		//nobody will write it, so it is taken back. Otherwise it was written, or failed by close().
+		if(closed && queue.remove(entry)) {
+			throw new IllegalStateException("Agreement archiver is closed");
+		}
+		return entry.done;
+	}
+
+	/**
+	 * Reads an archived agreement.
+	 * @param checkoutId
+	 * @return the agreement, or null if no agreement of this checkout is archived yet.
+	 * @throws IOException if the agreement can't be read or is corrupted.
+	 */
+	public byte[] read(String checkoutId) throws IOException {
+		Location location = index.get(checkoutId);
+		if(location == null) {
+			return null;
+		}
+		ByteBuffer data = ByteBuffer.allocate(location.length);
+		try (FileChannel channel = FileChannel.open(getSegmentFile(location.segmentNumber), StandardOpenOption.READ)) {
+			readFully(channel, data, location.offset);
+		}
+		CRC32 crc = new CRC32();
+		byte[] id = checkoutId.getBytes(StandardCharsets.UTF_8);
+		crc.update(id, 0, id.length);
+		crc.update(data.array(), 0, location.length);
+		if((int) crc.getValue() != location.crc) {
+			throw new IOException("Archived agreement is corrupted: " + checkoutId);
+		}
+		return data.array();
+	}
+
+	/**
+	 * Gives the number of checkouts with an archived agreement.
+	 * @return
+	 */
+	public int getArchivedCount() {
+		return index.size();
+	}
+
+	/**
+	 * Gives the corruptions found in the segments when the archive was opened.
+	 * The agreements after a corruption in a segment are not indexed, but they are still in the segment.
+	 * @return the errors, empty if the archive is intact.
+	 */
+	public List<String> getIndexErrors() {
+		return Collections.unmodifiableList(indexErrors);
+	}
+
+	/**
+	 * Writes the agreements still waiting, and stops the writer thread.
+	 * The agreements queued while closing, after the writer stopped, are failed.
+	 */
+	public synchronized void close() throws InterruptedException, IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		queue.put(Entry.END);
+		writerThread.join();
+		List<Entry> left = new ArrayList<Entry>();
+		queue.drainTo(left);
+		for(Entry entry : left) {
+			entry.done.completeExceptionally(new IOException("Agreement archiver was closed before archiving checkout " 
+					+ entry.checkoutId));
+		}
+		segment.close();
+	}
+
+	/**
+	 * Runs in the writer thread until the archiver is closed.
+	 */
+	private void writeAgreements() {
+		List<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+		boolean end = false;
+		while(!end) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				//Only close() stops the writer, so that no agreement is left in the queue.
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			int last = batch.indexOf(Entry.END);
+			if(last >= 0) {
+				end = true;
+				batch.remove(last);
+				//Agreements queued just before closing.
+				queue.drainTo(batch);
+			}
+
+			//Write the batch in groups that fit in the current segment.
+			int from = 0;
+			while(from < batch.size()) {
+				int to = from + 1;
+				long position = -1;
+				try {
+					if(segment.size() > 0 && segment.size() + batch.get(from).size() > segmentSize) {
+						rollSegment();
+					}
+					position = segment.size();
+					long groupSize = batch.get(from).size();
+					while(to < batch.size() && position + groupSize + batch.get(to).size() <= segmentSize) {
+						groupSize += batch.get(to).size();
+						to++;
+					}
+					writeGroup(batch.subList(from, to), position);
+				} catch (IOException e) {
+					for(int i = from; i < to; i++) {
+						System.out.println("Could not archive the agreement of checkout " + batch.get(i).checkoutId 
+								+ ": " + e.getMessage());
+						batch.get(i).done.completeExceptionally(e);
+					}
+					removePartialWrite(position);
+				}
+				from = to;
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Appends agreements to the current segment with one gathering write and one fsync, and then indexes them.
+	 */
+	private void writeGroup(List<Entry> group, long position) throws IOException {
+		ByteBuffer[] buffers = new ByteBuffer[group.size() * 2];
+		long[] offsets = new long[group.size()];
+		long offset = position;
+		for(int i = 0; i < group.size(); i++) {
+			Entry entry = group.get(i);
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + entry.id.length);
+			header.putInt(entry.id.length).putInt(entry.agreement.length).putInt(entry.crc);
+			header.putInt(headerCrc(header)).put(entry.id);
+			header.flip();
+			buffers[i * 2] = header;
+			buffers[i * 2 + 1] = ByteBuffer.wrap(entry.agreement);
+			offsets[i] = offset + RECORD_HEADER_SIZE + entry.id.length;
+			offset += entry.size();
+		}
+		segment.position(position);
+		long remaining = offset - position;
+		while(remaining > 0) {
+			remaining -= segment.write(buffers);
+		}
+		segment.force(false);
+
+		for(int i = 0; i < group.size(); i++) {
+			Entry entry = group.get(i);
+			index.put(entry.checkoutId, new Location(segmentNumber, offsets[i], entry.agreement.length, entry.crc));
+			entry.done.complete(null);
+		}
+	}
+
+	/**
+	 * Removes what a failed write left at the end of the segment, so that the next records follow the last good one.
+	 */
+	private void removePartialWrite(long position) {
+		if(position < 0) {
+			return;
+		}
+		try {
+			segment.truncate(position);
+		} catch (IOException e) {
+			//The segment is unusable, start the next one.
+			try {
+				rollSegment();
+			} catch (IOException ignored) {
+				//Retried with the next batch.
+			}
+		}
+	}
+
+	private void rollSegment() throws IOException {
+		segment.force(true);
+		segment.close();
+		segmentNumber++;
+		segment = openSegment(segmentNumber);
+	}
+
+	private FileChannel openSegment(int number) throws IOException {
+		return FileChannel.open(getSegmentFile(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	private Path getSegmentFile(int number) {
+		return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Indexes the agreements of a segment from their record headers. A record cut short at the end of the newest
+	 * segment is removed. Corruption is reported, and the segment is left as it is.
+	 * @param newest true for the segment that agreements are appended to.
+	 * @return false if the segment is corrupted.
+	 */
+	private boolean indexSegment(int number, boolean newest) throws IOException {
+		try (FileChannel channel = FileChannel.open(getSegmentFile(number), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			long position = 0;
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			while(position + RECORD_HEADER_SIZE <= size) {
+				header.clear();
+				readFully(channel, header, position);
+				header.flip();
+				int idLength = header.getInt();
+				int length = header.getInt();
+				int crc = header.getInt();
+				if(header.getInt() != headerCrc(header) || idLength < 0 || length < 0) {
+					return reportCorruption(number, position, "record header is corrupted");
+				}
+				long dataOffset = position + RECORD_HEADER_SIZE + idLength;
+				if(dataOffset + length > size) {
+					break;
+				}
+				ByteBuffer id = ByteBuffer.allocate(idLength);
+				readFully(channel, id, position + RECORD_HEADER_SIZE);
+				index.put(new String(id.array(), StandardCharsets.UTF_8), new Location(number, dataOffset, length, crc));
+				position = dataOffset + length;
+			}
+			if(position < size) {
+				if(!newest) {
+					//Older segments were made durable before the next one was started, a crash can't cut them short.
+					return reportCorruption(number, position, "record is cut short");
+				}
+				channel.truncate(position);
+			}
+			return true;
+		}
+	}
+
+	private boolean reportCorruption(int number, long position, String error) {
+		String message = "Agreement archive segment " + getSegmentFile(number) + " is corrupted at offset " + position 
+				+ ": " + error + ". The agreements after it are not indexed.";
+		System.out.println(message);
+		indexErrors.add(message);
+		return false;
+	}
+
+	/**
+	 * Gives the CRC32 of the first numbers of a record header.
+	 */
+	private static int headerCrc(ByteBuffer header) {
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 0, HEADER_CRC_OFFSET);
+		return (int) crc.getValue();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if(read < 0) {
+				throw new EOFException("Agreement archive is truncated");
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Agreement waiting to be written.
+	 */
+	private static final class Entry {
+		//Marks the end of the queue when closing.
+		static final Entry END = new Entry("", new byte[0]);
+
+		final String checkoutId;
+		final byte[] id;
+		final byte[] agreement;
+		final int crc;
+		final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+		Entry(String checkoutId, byte[] agreement) {
+			this.checkoutId = checkoutId;
+			this.id = checkoutId.getBytes(StandardCharsets.UTF_8);
+			this.agreement = agreement;
+			CRC32 checksum = new CRC32();
+			checksum.update(id, 0, id.length);
+			checksum.update(agreement, 0, agreement.length);
+			this.crc = (int) checksum.getValue();
+		}
+
+		long size() {
+			return RECORD_HEADER_SIZE + id.length + agreement.length;
+		}
+	}
+
+	/**
+	 * Where an agreement is archived.
+	 */
+	private static final class Location {
+		final int segmentNumber;
+		final long offset;
+		final int length;
+		final int crc;
+
+		Location(int segmentNumber, long offset, int length, int crc) {
+			this.segmentNumber = segmentNumber;
+			this.offset = offset;
+			this.length = length;
+			this.crc = crc;
+		}
+	}
+}
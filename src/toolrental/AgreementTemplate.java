@@ -0,0 +1,570 @@
+package toolrental;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Layout of the rental agreements, parsed once into literal byte segments, already encoded, and field slots. <br/>
+ * <br/>
+ * A template has sections, each one starting with its name in brackets alone on a line: <br/>
+ * [store] - block of the store, with the fields ${store.name}, ${store.address} and ${store.phone}. <br/>
+ * [customer] - block of the customer, with the fields ${customer.name} and ${customer.address}. <br/>
+ * [header] - top of the agreement, with the fields ${store} and ${customer} for the blocks above. <br/>
+ * [tool] - repeated for each tool, with the fields ${tool.number}, ${tool.code}, ${tool.type}, ${tool.brand},
+ * ${rental.days}, ${checkout.date}, ${due.date}, ${rent.weekday}, ${rent.weekend}, ${rent.holiday},
+ * ${charged.weekdays}, ${charged.weekends}, ${charged.holidays}, ${charge.gross}, ${discount.percent},
+ * ${discount.amount} and ${charge.net}. <br/>
+ * [footer] - bottom of the agreement, with the same fields as the header. <br/>
+ * Only the tool section is required. Lines before the first section starting with # are comments. <br/>
+ * <br/>
+ * The blocks of a store and of a customer are encoded once and cached, so rendering an agreement is mostly
+ * copies of encoded bytes, plus the numbers and dates of each tool. Templates are immutable and thread-safe.
+ * @author Binod
+ *
+ */
+public final class AgreementTemplate {
+
+	public static final String STORE_SECTION = "store";
+	public static final String CUSTOMER_SECTION = "customer";
+	public static final String HEADER_SECTION = "header";
+	public static final String TOOL_SECTION = "tool";
+	public static final String FOOTER_SECTION = "footer";
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	//Number of store or customer blocks kept per template. The cache is emptied when it is full,
+	//so that the blocks of the recent customers are kept.
+	private static final int MAX_CACHED_BLOCKS = 1024;
+
+	//Layout of the rental agreements when no template is configured, the only built-in copy of it.
+	private static final String DEFAULT_TEMPLATE =
+			"[store]\n"
+			+ "${store.name}\n"
+			+ "${store.address}\n"
+			+ "phone: ${store.phone}\n"
+			+ "\n"
+			+ "[customer]\n"
+			+ "Customer:\n"
+			+ "${customer.name}\n"
+			+ "${customer.address}\n"
+			+ "\n"
+			+ "[header]\n"
+			+ "${store}\n"
+			+ "${customer}\n"
+			+ "Thank you for renting the tool(s) from our store. \n"
+			+ "Details are below:\n"
+			+ "[tool]\n"
+			+ "Tool #${tool.number}\n"
+			+ "================\n"
+			+ "Tool Code: ${tool.code}\n"
+			+ "Tool Type: ${tool.type}\n"
+			+ "Tool Brand: ${tool.brand}\n"
+			+ "Rental Days: ${rental.days}\n"
+			+ "Check Out Date: ${checkout.date}\n"
+			+ "Due Date: ${due.date}\n"
+			+ "Daily rental charge rate: weekdays - $${rent.weekday}, weekends -$${rent.weekend}, holidays - $${rent.holiday}\n"
+			+ "Charge Days (Days actually charged): weekdays - ${charged.weekdays}, weekends -${charged.weekends}, holidays - ${charged.holidays}\n"
+			+ "Pre-discount charge: $${charge.gross}\n"
+			+ "Discount percent: ${discount.percent}%\n"
+			+ "Discount Amount: $${discount.amount}\n"
+			+ "Final Charge: $${charge.net}\n"
+			+ "================\n";
+
+	/**
+	 * Fields of a template, and the sections they can be used in.
+	 */
+	enum Field {
+		STORE("store", HEADER_SECTION, FOOTER_SECTION),
+		CUSTOMER("customer", HEADER_SECTION, FOOTER_SECTION),
+		STORE_NAME("store.name", STORE_SECTION),
+		STORE_ADDRESS("store.address", STORE_SECTION),
+		STORE_PHONE("store.phone", STORE_SECTION),
+		CUSTOMER_NAME("customer.name", CUSTOMER_SECTION),
+		CUSTOMER_ADDRESS("customer.address", CUSTOMER_SECTION),
+		TOOL_NUMBER("tool.number", TOOL_SECTION),
+		TOOL_CODE("tool.code", TOOL_SECTION),
+		TOOL_TYPE("tool.type", TOOL_SECTION),
+		TOOL_BRAND("tool.brand", TOOL_SECTION),
+		RENTAL_DAYS("rental.days", TOOL_SECTION),
+		CHECKOUT_DATE("checkout.date", TOOL_SECTION),
+		DUE_DATE("due.date", TOOL_SECTION),
+		WEEKDAY_RENT("rent.weekday", TOOL_SECTION),
+		WEEKEND_RENT("rent.weekend", TOOL_SECTION),
+		HOLIDAY_RENT("rent.holiday", TOOL_SECTION),
+		CHARGED_WEEKDAYS("charged.weekdays", TOOL_SECTION),
+		CHARGED_WEEKENDS("charged.weekends", TOOL_SECTION),
+		CHARGED_HOLIDAYS("charged.holidays", TOOL_SECTION),
+		GROSS_CHARGE("charge.gross", TOOL_SECTION),
+		DISCOUNT_PERCENT("discount.percent", TOOL_SECTION),
+		DISCOUNT_AMOUNT("discount.amount", TOOL_SECTION),
+		NET_CHARGE("charge.net", TOOL_SECTION);
+
+		private final String key;
+		private final List<String> sections;
+
+		private Field(String key, String... sections) {
+			this.key = key;
+			this.sections = Arrays.asList(sections);
+		}
+	}
+
+	private static final Map<String, Field> FIELDS = new HashMap<String, Field>();
+	static {
+		for(Field field : Field.values()) {
+			FIELDS.put(field.key, field);
+		}
+	}
+
+	//Created after the fields, which it is parsed with.
+	private static final AgreementTemplate DEFAULT = createDefault();
+
+	private final Charset charset;
+	private final Section storeSection;
+	private final Section customerSection;
+	private final Section headerSection;
+	private final Section toolSection;
+	private final Section footerSection;
+
+	private final ConcurrentHashMap<StoreInfo, byte[]> storeBlocks = new ConcurrentHashMap<StoreInfo, byte[]>();
+	private final ConcurrentHashMap<CustomerInfo, byte[]> customerBlocks = new ConcurrentHashMap<CustomerInfo, byte[]>();
+
+	private AgreementTemplate(Map<String, String> sections, Charset charset) throws ToolRentalException {
+		this.charset = charset;
+		this.storeSection = compile(STORE_SECTION, sections.get(STORE_SECTION));
+		this.customerSection = compile(CUSTOMER_SECTION, sections.get(CUSTOMER_SECTION));
+		this.headerSection = compile(HEADER_SECTION, sections.get(HEADER_SECTION));
+		this.toolSection = compile(TOOL_SECTION, sections.get(TOOL_SECTION));
+		this.footerSection = compile(FOOTER_SECTION, sections.get(FOOTER_SECTION));
+	}
+
+	/**
+	 * Parses a template.
+	 * @param text
+	 * @param charset charset the agreements are written with. It should write ASCII characters as single bytes,
+	 * as UTF-8 and ISO-8859-1 do.
+	 * @return
+	 * @throws ToolRentalException if the template is not valid.
+	 */
+	public static AgreementTemplate parse(String text, Charset charset) throws ToolRentalException {
+		if(!isAsciiCompatible(charset)) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_AGREEMENT_TEMPLATE
+					+ "Charset " + charset + " does not write ASCII characters as single bytes");
+		}
+
+		Map<String, String> sections = new HashMap<String, String>();
+		String section = null;
+		StringBuilder content = null;
+		String[] lines = text.split("\r?\n", -1);
+		//The last line is empty if the text ends with a new line.
+		int lineCount = lines.length > 0 && lines[lines.length - 1].isEmpty() ? lines.length - 1 : lines.length;
+		for(int i = 0; i < lineCount; i++) {
+			String line = lines[i];
+			if(line.startsWith("[") && line.trim().endsWith("]")) {
+				String name = line.trim().substring(1, line.trim().length() - 1).trim();
+				if(!Arrays.asList(STORE_SECTION, CUSTOMER_SECTION, HEADER_SECTION, TOOL_SECTION, FOOTER_SECTION).contains(name)
+						|| sections.containsKey(name) || name.equals(section)) {
+					throw new ToolRentalException(AppErrorMessage.INVALID_AGREEMENT_TEMPLATE
+							+ "Unknown or repeated section " + line.trim() + " at line " + (i + 1));
+				}
+				if(section != null) {
+					sections.put(section, content.toString());
+				}
+				section = name;
+				content = new StringBuilder();
+			} else if(section != null) {
+				content.append(line).append(LINE_SEPARATOR);
+			} else if(!line.trim().isEmpty() && !line.startsWith("#")) {
+				throw new ToolRentalException(AppErrorMessage.INVALID_AGREEMENT_TEMPLATE
+						+ "Text before the first section at line " + (i + 1));
+			}
+		}
+		if(section != null) {
+			sections.put(section, content.toString());
+		}
+		if(!sections.containsKey(TOOL_SECTION)) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_AGREEMENT_TEMPLATE + "Section [" + TOOL_SECTION + "] is missing");
+		}
+		return new AgreementTemplate(sections, charset);
+	}
+
+	/**
+	 * Loads a template file, written in UTF-8.
+	 * @param file
+	 * @param charset charset the agreements are written with.
+	 * @return
+	 * @throws IOException if the file can't be read.
+	 * @throws ToolRentalException if the template is not valid.
+	 */
+	public static AgreementTemplate load(Path file, Charset charset) throws IOException, ToolRentalException {
+		return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), charset);
+	}
+
+	/**
+	 * Gives the template used when no template is configured, written with the default charset.
+	 * @return
+	 */
+	public static AgreementTemplate getDefault() {
+		return DEFAULT;
+	}
+
+	private static AgreementTemplate createDefault() {
+		try {
+			return parse(DEFAULT_TEMPLATE, Charset.defaultCharset());
+		} catch (ToolRentalException e) {
+			//The default charset writes multi-byte ASCII, which no platform default does.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Writes the header section of an agreement.
+	 * @param store
+	 * @param customer
+	 * @param out
+	 */
+	void writeHeader(StoreInfo store, CustomerInfo customer, Output out) {
+		writeSection(headerSection, out, store, customer, null, 0, null);
+	}
+
+	/**
+	 * Writes the section of a tool of an agreement.
+	 * @param data
+	 * @param number number of the tool in the agreement, starting from 1.
+	 * @param dateCodec
+	 * @param out
+	 */
+	void writeTool(CheckoutData data, int number, DateCodec dateCodec, Output out) {
+		writeSection(toolSection, out, null, null, data, number, dateCodec);
+	}
+
+	/**
+	 * Writes the footer section of an agreement.
+	 * @param store
+	 * @param customer
+	 * @param out
+	 */
+	void writeFooter(StoreInfo store, CustomerInfo customer, Output out) {
+		writeSection(footerSection, out, store, customer, null, 0, null);
+	}
+
+	/**
+	 * Gives the encoded block of a store, rendering it only the first time.
+	 */
+	private byte[] getStoreBlock(StoreInfo store) {
+		byte[] block = storeBlocks.get(store);
+		if(block == null) {
+			Output out = new Output();
+			writeSection(storeSection, out, store, null, null, 0, null);
+			block = out.toByteArray();
+			cache(storeBlocks, store, block);
+		}
+		return block;
+	}
+
+	/**
+	 * Gives the encoded block of a customer, rendering it only the first time.
+	 */
+	private byte[] getCustomerBlock(CustomerInfo customer) {
+		byte[] block = customerBlocks.get(customer);
+		if(block == null) {
+			Output out = new Output();
+			writeSection(customerSection, out, null, customer, null, 0, null);
+			block = out.toByteArray();
+			cache(customerBlocks, customer, block);
+		}
+		return block;
+	}
+
+	private static <K> void cache(ConcurrentHashMap<K, byte[]> blocks, K key, byte[] block) {
+		if(blocks.size() >= MAX_CACHED_BLOCKS) {
+			blocks.clear();
+		}
+		blocks.put(key, block);
+	}
+
+	private void writeSection(Section section, Output out, StoreInfo store, CustomerInfo customer,
+			CheckoutData data, int number, DateCodec dateCodec) {
+		for(int i = 0; i < section.fields.length; i++) {
+			out.write(section.literals[i]);
+			writeField(section.fields[i], out, store, customer, data, number, dateCodec);
+		}
+		out.write(section.literals[section.fields.length]);
+	}
+
+	private void writeField(Field field, Output out, StoreInfo store, CustomerInfo customer,
+			CheckoutData data, int number, DateCodec dateCodec) {
+		switch(field) {
+		case STORE:
+			out.write(getStoreBlock(store));
+			break;
+		case CUSTOMER:
+			out.write(getCustomerBlock(customer));
+			break;
+		case STORE_NAME:
+			out.writeText(store.getName(), charset);
+			break;
+		case STORE_ADDRESS:
+			writeLines(store.getAddressLines(), out);
+			break;
+		case STORE_PHONE:
+			out.writeText(store.getPhone(), charset);
+			break;
+		case CUSTOMER_NAME:
+			out.writeText(customer.getName(), charset);
+			break;
+		case CUSTOMER_ADDRESS:
+			writeLines(customer.getAddressLines(), out);
+			break;
+		case TOOL_NUMBER:
+			out.writeInt(number);
+			break;
+		case TOOL_CODE:
+			out.writeText(data.getTool().getCode(), charset);
+			break;
+		case TOOL_TYPE:
+			out.writeText(data.getTool().getType().getToolTtype(), charset);
+			break;
+		case TOOL_BRAND:
+			out.writeText(data.getTool().getBrand(), charset);
+			break;
+		case RENTAL_DAYS:
+			out.writeInt(data.getRentalDayCount());
+			break;
+		case CHECKOUT_DATE:
+			writeDate(data.getCheckoutDate(), dateCodec, out);
+			break;
+		case DUE_DATE:
+			writeDate(data.getDueDate(), dateCodec, out);
+			break;
+		case WEEKDAY_RENT:
+			writeAmount(data.getTool().getType().getWeekdayRent(), out);
+			break;
+		case WEEKEND_RENT:
+			writeAmount(data.getTool().getType().getWeekendRent(), out);
+			break;
+		case HOLIDAY_RENT:
+			writeAmount(data.getTool().getType().getHolidayRent(), out);
+			break;
+		case CHARGED_WEEKDAYS:
+			out.writeInt(data.getTool().getType().isChargedWeekday() ? data.getNumWeekDays() : 0);
+			break;
+		case CHARGED_WEEKENDS:
+			out.writeInt(data.getTool().getType().isChargedWeekend() ? data.getNumWeekendDays() : 0);
+			break;
+		case CHARGED_HOLIDAYS:
+			out.writeInt(data.getTool().getType().isChargedHoliday() ? data.getNumHolidays() : 0);
+			break;
+		case GROSS_CHARGE:
+			writeAmount(data.getGrossRentAmount(), out);
+			break;
+		case DISCOUNT_PERCENT:
+			out.writeInt(data.getDiscountPercent());
+			break;
+		case DISCOUNT_AMOUNT:
+			writeAmount(data.getDiscountAmount(), out);
+			break;
+		case NET_CHARGE:
+			writeAmount(data.getNetRentAmount(), out);
+			break;
+		}
+	}
+
+	private void writeLines(List<String> lines, Output out) {
+		for(int i = 0; i < lines.size(); i++) {
+			if(i > 0) {
+				out.writeText(LINE_SEPARATOR, charset);
+			}
+			out.writeText(lines.get(i), charset);
+		}
+	}
+
+	private static void writeAmount(BigDecimal amount, Output out) {
+		//BigDecimal keeps its string once it is made, and it is only ASCII.
+		out.writeText(amount == null ? "null" : amount.toString(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Formats a date, or writes it in the default format of the LocalDate if it can't be formatted.
+	 */
+	private void writeDate(LocalDate date, DateCodec dateCodec, Output out) {
+		StringBuilder scratch = out.scratch;
+		scratch.setLength(0);
+		if(dateCodec.isValid()) {
+			try {
+				dateCodec.format(date, scratch);
+			} catch (DateTimeException e) {
+				scratch.setLength(0);
+			}
+		}
+		if(scratch.length() == 0) {
+			scratch.append(ToolRentalUtils.formatDate(date, dateCodec));
+		}
+		out.writeText(scratch, charset);
+	}
+
+	/**
+	 * Splits the text of a section into literal segments, encoded once, and fields.
+	 */
+	private Section compile(String name, String text) throws ToolRentalException {
+		List<byte[]> literals = new ArrayList<byte[]>();
+		List<Field> fields = new ArrayList<Field>();
+		if(text == null) {
+			text = "";
+		}
+		int position = 0;
+		while(true) {
+			int start = text.indexOf("${", position);
+			if(start < 0) {
+				break;
+			}
+			int end = text.indexOf('}', start);
+			if(end < 0) {
+				throw new ToolRentalException(AppErrorMessage.INVALID_AGREEMENT_TEMPLATE
+						+ "Field is not closed in section [" + name + "]: " + text.substring(start));
+			}
+			Field field = FIELDS.get(text.substring(start + 2, end).trim());
+			if(field == null || !field.sections.contains(name)) {
+				throw new ToolRentalException(AppErrorMessage.INVALID_AGREEMENT_TEMPLATE
+						+ "Unknown field " + text.substring(start, end + 1) + " in section [" + name + "]");
+			}
+			literals.add(text.substring(position, start).getBytes(charset));
+			fields.add(field);
+			position = end + 1;
+		}
+		literals.add(text.substring(position).getBytes(charset));
+		return new Section(literals.toArray(new byte[literals.size()][]), fields.toArray(new Field[fields.size()]));
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		byte[] ascii = new byte[128];
+		char[] chars = new char[128];
+		for(int i = 0; i < 128; i++) {
+			ascii[i] = (byte) i;
+			chars[i] = (char) i;
+		}
+		return Arrays.equals(ascii, new String(chars).getBytes(charset));
+	}
+
+	/**
+	 * Literal segments of a section, with a field between each two segments.
+	 */
+	private static final class Section {
+		private final byte[][] literals;
+		private final Field[] fields;
+
+		Section(byte[][] literals, Field[] fields) {
+			this.literals = literals;
+			this.fields = fields;
+		}
+	}
+
+	/**
+	 * Growable buffer the agreements are rendered into, reused from one agreement to the next.
+	 * It should be used by one thread at a time.
+	 */
+	static final class Output {
+		private byte[] bytes = new byte[4096];
+		private int count = 0;
+		//For the dates.
+		private final StringBuilder scratch = new StringBuilder(32);
+
+		void write(byte[] segment) {
+			ensure(segment.length);
+			System.arraycopy(segment, 0, bytes, count, segment.length);
+			count += segment.length;
+		}
+
+		/**
+		 * Writes a text. ASCII characters are copied as bytes, other texts are encoded.
+		 */
+		void writeText(CharSequence text, Charset charset) {
+			int length = text.length();
+			ensure(length);
+			int start = count;
+			for(int i = 0; i < length; i++) {
+				char c = text.charAt(i);
+				if(c >= 0x80) {
+					count = start;
+					write(text.toString().getBytes(charset));
+					return;
+				}
+				bytes[count++] = (byte) c;
+			}
+		}
+
+		void writeInt(int value) {
+			ensure(11);
+			if(value < 0) {
+				if(value == Integer.MIN_VALUE) {
+					writeText(Integer.toString(value), StandardCharsets.US_ASCII);
+					return;
+				}
+				bytes[count++] = '-';
+				value = -value;
+			}
+			int digits = 1;
+			for(int rest = value / 10; rest > 0; rest /= 10) {
+				digits++;
+			}
+			for(int i = count + digits - 1; i >= count; i--) {
+				bytes[i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+			count += digits;
+		}
+
+		int size() {
+			return count;
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			out.write(bytes, 0, count);
+		}
+		
+		/**
+		 * Writes what was written since a size.
+		 */
+		void writeTo(OutputStream out, int from) throws IOException {
+			out.write(bytes, from, count - from);
+		}
+
+		/**
+		 * Gives what was written since a size, without copying it.
+		 */
+		ByteBuffer wrap(int from) {
+			return ByteBuffer.wrap(bytes, from, count - from);
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, count);
+		}
+
+		void reset() {
+			count = 0;
+		}
+
+		private void ensure(int length) {
+			if(count + length > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(count + length, bytes.length * 2));
+			}
+		}
+	}
+}
@@ -11,5 +11,17 @@ public interface AppErrorMessage {
 	public static final String INVALID_TOOL_SPEC = "Tool spec is not valid : "; 
 	public static final String INVALID_RENTAL_DAY_COUNT = "Number of rental days should be 1 or more."; 
 	public static final String INVALID_DISCOUNT_PERCENT = "Discount percent should be a whole number in the range of 0 to 100."; 
+	public static final String INVALID_HOLIDAY_RULE = "Holiday rule is not valid : "; 
+	public static final String INVALID_CONFIG_VALUE = "Configuration value is not valid : "; 
+	public static final String CHECKOUT_BATCH_FAILED = "Checkout failed for "; 
+	public static final String DUPLICATE_TOOL_CODE = "Tool code is used more than once in the inventory : "; 
+	public static final String UNKNOWN_TOOL_CODE = "Tool code is not in the inventory : "; 
+	public static final String INVALID_INVENTORY_FILE = "Inventory file is not valid : "; 
+	public static final String INVALID_INVENTORY_CHANGE = "Inventory change is not valid : "; 
+	public static final String INVENTORY_NOT_LOADED = "Inventory is not loaded."; 
+	public static final String INVALID_AGREEMENT_TEMPLATE = "Agreement template is not valid : "; 
+	public static final String TOOL_NOT_AVAILABLE = "Tool is already reserved for these dates : "; 
+	public static final String NOT_ENOUGH_STOCK = "Not enough units of the tool in stock : "; 
+	public static final String INVALID_STOCK_CHANGE = "Stock change is not valid : "; 
 
 }
@@ -0,0 +1,236 @@
+package toolrental;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Typed view of the settings of the configuration file. <br/>
+ * Every setting is parsed and validated once, when the configuration is loaded, and patterns are compiled then,
+ * so the rest of the application never parses a configuration string again. Instances are immutable.
+ * @author Binod
+ *
+ */
+public final class AppSettings {
+
+	//Configuration keys.
+	public static final String DATE_FORMAT_KEY = "date-format";
+	public static final String DAY_INDEX_FIRST_YEAR_KEY = "day-index-first-year";
+	public static final String DAY_INDEX_LAST_YEAR_KEY = "day-index-last-year";
+	public static final String CALCULATION_TRACE_KEY = "calculation-trace";
+	public static final String QUOTE_CACHE_SIZE_KEY = "quote-cache-size";
+	public static final String INVENTORY_HOT_RELOAD_KEY = "inventory-hot-reload";
+	public static final String AGREEMENT_TEMPLATE_KEY = "agreement-template";
+	public static final String AGREEMENT_ARCHIVE_DIR_KEY = "agreement-archive-dir";
+	public static final String TOOL_RESERVATIONS_KEY = "tool-reservations";
+	//Prefix of the keys that declare the observed holidays.
+	public static final String HOLIDAY_KEY_PREFIX = "holiday.";
+
+	public static final String DEFAULT_DATE_FORMAT = "MM/dd/yy";
+
+	//Settings used when no configuration file is loaded.
+	private static final AppSettings DEFAULTS = createDefaults();
+
+	private final DateCodec dateCodec;
+	private final int dayIndexFirstYear;
+	private final int dayIndexLastYear;
+	private final boolean calculationTrace;
+	private final int quoteCacheSize;
+	private final boolean inventoryHotReload;
+	private final String agreementTemplateFile;
+	private final String agreementArchiveDir;
+	private final boolean toolReservations;
+	private final List<HolidayRule> holidayRules;
+
+	private AppSettings(Properties prop) throws ToolRentalException {
+		dateCodec = DateCodec.get(getStringProperty(prop, DATE_FORMAT_KEY, DEFAULT_DATE_FORMAT));
+		if(!dateCodec.isValid()) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_CONFIG_VALUE + DATE_FORMAT_KEY + " = " + dateCodec.getPattern()
+					+ ": " + dateCodec.getError());
+		}
+
+		dayIndexFirstYear = getIntProperty(prop, DAY_INDEX_FIRST_YEAR_KEY, DayClassIndex.DEFAULT_FIRST_YEAR);
+		dayIndexLastYear = getIntProperty(prop, DAY_INDEX_LAST_YEAR_KEY, DayClassIndex.DEFAULT_LAST_YEAR);
+		if(dayIndexLastYear < dayIndexFirstYear) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_CONFIG_VALUE + DAY_INDEX_LAST_YEAR_KEY + " = " + dayIndexLastYear);
+		}
+
+		calculationTrace = getBooleanProperty(prop, CALCULATION_TRACE_KEY, false);
+
+		quoteCacheSize = getIntProperty(prop, QUOTE_CACHE_SIZE_KEY, 0);
+		if(quoteCacheSize < 0) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_CONFIG_VALUE + QUOTE_CACHE_SIZE_KEY + " = " + quoteCacheSize);
+		}
+
+		inventoryHotReload = getBooleanProperty(prop, INVENTORY_HOT_RELOAD_KEY, false);
+		
+		String templateFile = getStringProperty(prop, AGREEMENT_TEMPLATE_KEY, "");
+		agreementTemplateFile = templateFile.isEmpty() ? null : templateFile;
+		String archiveDir = getStringProperty(prop, AGREEMENT_ARCHIVE_DIR_KEY, "");
+		agreementArchiveDir = archiveDir.isEmpty() ? null : archiveDir;
+		
+		toolReservations = getBooleanProperty(prop, TOOL_RESERVATIONS_KEY, false);
+
+		//Sort the keys so that the rules are always compiled in the same order.
+		List<String> holidayKeys = new ArrayList<String>();
+		for(String key : prop.stringPropertyNames()) {
+			if(key.startsWith(HOLIDAY_KEY_PREFIX)) {
+				holidayKeys.add(key);
+			}
+		}
+		Collections.sort(holidayKeys);
+		List<HolidayRule> rules = new ArrayList<HolidayRule>();
+		for(String key : holidayKeys) {
+			rules.add(HolidayRule.parse(prop.getProperty(key)));
+		}
+		holidayRules = Collections.unmodifiableList(rules);
+	}
+
+	/**
+	 * Parses and validates the settings of a configuration. Settings that are not given take their default values.
+	 * @param prop configuration properties.
+	 * @return
+	 * @throws ToolRentalException if a setting is not valid.
+	 */
+	public static AppSettings parse(Properties prop) throws ToolRentalException {
+		return new AppSettings(prop);
+	}
+
+	/**
+	 * Gives the default settings, used when no configuration file is loaded.
+	 * @return
+	 */
+	public static AppSettings getDefaults() {
+		return DEFAULTS;
+	}
+
+	private static AppSettings createDefaults() {
+		try {
+			return new AppSettings(new Properties());
+		} catch (ToolRentalException e) {
+			//Not possible, the default values are valid.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gives the date format pattern, for example "MM/dd/yy".
+	 * @return
+	 */
+	public String getDateFormatPattern() {
+		return dateCodec.getPattern();
+	}
+	
+	/**
+	 * Gives the codec of the date format pattern, to format and parse dates without compiling the pattern again.
+	 * @return
+	 */
+	public DateCodec getDateCodec() {
+		return dateCodec;
+	}
+
+	/**
+	 * Gives the formatter of the date format pattern, compiled once. It is immutable, so it can be shared by all threads.
+	 * @return
+	 */
+	public DateTimeFormatter getDateFormatter() {
+		return dateCodec.getFormatter();
+	}
+
+	public int getDayIndexFirstYear() {
+		return dayIndexFirstYear;
+	}
+
+	public int getDayIndexLastYear() {
+		return dayIndexLastYear;
+	}
+
+	/**
+	 * Tells if the details of the checkout calculations should be written to the console.
+	 * @return
+	 */
+	public boolean isCalculationTrace() {
+		return calculationTrace;
+	}
+
+	/**
+	 * Gives the maximum number of cached quotes, 0 if the quote cache is off.
+	 * @return
+	 */
+	public int getQuoteCacheSize() {
+		return quoteCacheSize;
+	}
+
+	/**
+	 * Tells if the inventory should be reloaded when the inventory file changes.
+	 * @return
+	 */
+	public boolean isInventoryHotReload() {
+		return inventoryHotReload;
+	}
+
+	/**
+	 * Gives the file of the layout of the rental agreements.
+	 * @return the file, or null if none is configured. The default layout is then used.
+	 */
+	public String getAgreementTemplateFile() {
+		return agreementTemplateFile;
+	}
+	
+	/**
+	 * Gives the directory the printed agreements are archived in.
+	 * @return the directory, or null if the agreements are not archived.
+	 */
+	public String getAgreementArchiveDir() {
+		return agreementArchiveDir;
+	}
+	
+	/**
+	 * Tells if checkouts should book their tools, so that a tool is not rented twice for the same days.
+	 * @return
+	 */
+	public boolean isToolReservations() {
+		return toolReservations;
+	}
+	
+	/**
+	 * Gives the holiday rules declared in the configuration, in the order of their keys.
+	 * @return the rules, or an empty list if none is declared. The default holidays are then used.
+	 */
+	public List<HolidayRule> getHolidayRules() {
+		return holidayRules;
+	}
+
+	private static String getStringProperty(Properties prop, String key, String defaultValue) {
+		String value = prop.getProperty(key);
+		return value == null ? defaultValue : value.trim();
+	}
+
+	private static int getIntProperty(Properties prop, String key, int defaultValue) throws ToolRentalException {
+		String value = prop.getProperty(key);
+		if(value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_CONFIG_VALUE + key + " = " + value);
+		}
+	}
+
+	private static boolean getBooleanProperty(Properties prop, String key, boolean defaultValue) throws ToolRentalException {
+		String value = prop.getProperty(key);
+		if(value == null) {
+			return defaultValue;
+		}
+		if(value.trim().equalsIgnoreCase("true")) {
+			return true;
+		}
+		if(value.trim().equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new ToolRentalException(AppErrorMessage.INVALID_CONFIG_VALUE + key + " = " + value);
+	}
+}
@@ -0,0 +1,173 @@
+package toolrental;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calculation trace that writes the trace records from a background thread. <br/>
+ * The checkout threads only put a small record into a fixed-size ring buffer and return at once;
+ * the records are formatted and written out by a single writer thread. If the ring buffer is full,
+ * the record is dropped rather than making the checkout wait, and the number of dropped records is counted.
+ * @author Binod
+ *
+ */
+public class AsyncCalculationTraceWriter implements CalculationTrace {
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private final BlockingQueue<TraceRecord> ringBuffer;
+	private final Appendable out;
+	private final Thread writerThread;
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	public AsyncCalculationTraceWriter(Appendable out) {
+		this(out, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 * @param out where the trace is written, for example System.out.
+	 * @param capacity maximum number of records waiting to be written.
+	 */
+	public AsyncCalculationTraceWriter(Appendable out, int capacity) {
+		this.out = out;
+		this.ringBuffer = new ArrayBlockingQueue<TraceRecord>(capacity);
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeRecords();
+			}
+		}, "calculation-trace-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	@Override
+	public void rentCalculated(Tool tool, int numWeekDays, int numWeekendDays, int numHolidays, int discountPercent,
+			BigDecimal grossRentAmount, BigDecimal discountAmount, BigDecimal netRentAmount) {
+		add(new RentRecord(tool.getCode(), numWeekDays, numWeekendDays, numHolidays, discountPercent,
+				grossRentAmount, discountAmount, netRentAmount));
+	}
+
+	@Override
+	public void dateFormatFailed(String format, String message) {
+		add(new DateFormatRecord(format, message));
+	}
+
+	/**
+	 * Gives the number of records dropped because the ring buffer was full, or because writing failed.
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Writes out the records still waiting, and stops the writer thread.
+	 */
+	public void close() throws InterruptedException {
+		writerThread.interrupt();
+		writerThread.join();
+	}
+
+	private void add(TraceRecord record) {
+		if(!ringBuffer.offer(record)) {
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Runs in the writer thread until it is interrupted. Records are written in batches, flushing after each batch.
+	 */
+	private void writeRecords() {
+		StringBuilder line = new StringBuilder(256);
+		List<TraceRecord> batch = new ArrayList<TraceRecord>();
+		boolean running = true;
+		while(running) {
+			try {
+				batch.add(ringBuffer.take());
+			} catch (InterruptedException e) {
+				running = false;
+			}
+			ringBuffer.drainTo(batch);
+
+			for(TraceRecord record : batch) {
+				line.setLength(0);
+				record.appendTo(line);
+				line.append(System.lineSeparator());
+				try {
+					out.append(line);
+				} catch (IOException e) {
+					droppedCount.incrementAndGet();
+				}
+			}
+			batch.clear();
+
+			if(out instanceof Flushable) {
+				try {
+					((Flushable) out).flush();
+				} catch (IOException e) {
+					//Nothing more can be done about it here.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record of one trace event, formatted only in the writer thread.
+	 */
+	private static abstract class TraceRecord {
+		abstract void appendTo(StringBuilder line);
+	}
+
+	private static class RentRecord extends TraceRecord {
+		private final String toolCode;
+		private final int numWeekDays, numWeekendDays, numHolidays, discountPercent;
+		private final BigDecimal grossRentAmount, discountAmount, netRentAmount;
+
+		RentRecord(String toolCode, int numWeekDays, int numWeekendDays, int numHolidays, int discountPercent,
+				BigDecimal grossRentAmount, BigDecimal discountAmount, BigDecimal netRentAmount) {
+			this.toolCode = toolCode;
+			this.numWeekDays = numWeekDays;
+			this.numWeekendDays = numWeekendDays;
+			this.numHolidays = numHolidays;
+			this.discountPercent = discountPercent;
+			this.grossRentAmount = grossRentAmount;
+			this.discountAmount = discountAmount;
+			this.netRentAmount = netRentAmount;
+		}
+
+		@Override
+		void appendTo(StringBuilder line) {
+			line.append("toolCode = ").append(toolCode)
+				.append(", weekDays = ").append(numWeekDays)
+				.append(", weekendDays = ").append(numWeekendDays)
+				.append(", holidays = ").append(numHolidays)
+				.append(", discountPercent = ").append(discountPercent)
+				.append(", grossRentAmount = ").append(grossRentAmount)
+				.append(", discountAmount = ").append(discountAmount)
+				.append(", netRentAmount = ").append(netRentAmount);
+		}
+	}
+
+	private static class DateFormatRecord extends TraceRecord {
+		private final String format;
+		private final String message;
+
+		DateFormatRecord(String format, String message) {
+			this.format = format;
+			this.message = message;
+		}
+
+		@Override
+		void appendTo(StringBuilder line) {
+			line.append("Date formatting failed. Format = ").append(format).append(", Message = ").append(message);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package toolrental;
+
+import java.math.BigDecimal;
+
+/**
+ * Listener for the details of the checkout calculations, for example to keep an audit trail. <br/>
+ * The trace is optional, see {@link ToolRentalAppConfig#setCalculationTrace(CalculationTrace)}. When no trace is set,
+ * nothing at all is done for it, not even building the messages. <br/>
+ * Implementations are called from the checkout threads, so they should return quickly and leave any
+ * formatting and writing to another thread, as {@link AsyncCalculationTraceWriter} does.
+ * @author Binod
+ *
+ */
+public interface CalculationTrace {
+
+	/**
+	 * Called once the amounts for a tool have been calculated.
+	 */
+	public void rentCalculated(Tool tool, int numWeekDays, int numWeekendDays, int numHolidays, int discountPercent,
+			BigDecimal grossRentAmount, BigDecimal discountAmount, BigDecimal netRentAmount);
+
+	/**
+	 * Called when a date could not be formatted with the given pattern, and the default format was used instead.
+	 */
+	public void dateFormatFailed(String format, String message);
+
+}
@@ -1,6 +1,18 @@
 package toolrental;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Class to check out Tool(s) for rent to a customer.
@@ -9,45 +21,304 @@ import java.util.List;
  */
 public class Checkout {
 	
+	//Below this number of tools, the parallel checkout runs in the calling thread, 
+	//as splitting the work would cost more than it saves.
+	public static final int PARALLEL_THRESHOLD = 64;
+	
+	//Store and customer of the agreements. Hard-coded for this demo, they would come from the point of sale.
+	private static final StoreInfo DEMO_STORE = new StoreInfo("TOOL RENTAL INC.", 
+			Arrays.asList("New London City"), "1112223334444");
+	private static final CustomerInfo DEMO_CUSTOMER = new CustomerInfo("John Doe", 
+			Arrays.asList("123 Rt 100 ", "New City", "NY 111111"));
+	
+	//Number of tools calculated by one fork-join task without splitting further.
+	private static final int TOOLS_PER_TASK = 32;
+	
 	//Tools to checkout. For future proofing, allow multiple tools to be checked out at the same time.
 	private List<CheckoutData> checkoutData; 
 	
+	//Inventory that the ordered tools must be in, or null to not check the tools.
+	private InventoryIndex inventory;
+	
+	//Bookings the tools are reserved in, or null to not reserve the tools.
+	private ReservationLedger reservationLedger;
+	
+	//Bookings of the tools, once the checkout is done.
+	private List<Reservation> reservations = Collections.emptyList();
+	
+	//Id of the checkout, the agreement is archived with it.
+	private final String checkoutId = UUID.randomUUID().toString();
+	
+	/**
+	 * Creates a checkout for tools of the loaded inventory. If the inventory is not loaded, the tools are not checked. <br/>
+	 * The checkout keeps the version of the inventory current at this time, even if the inventory is reloaded meanwhile.
+	 * If tool reservations are on in the configuration, the tools are booked for their rental days.
+	 * @param checkoutData
+	 */
 	public Checkout(List<CheckoutData> checkoutData) {
+		this(checkoutData, ToolRentalAppConfig.getInstance().getInventoryIndex(), 
+				ToolRentalAppConfig.getInstance().getSettings().isToolReservations() 
+				? ToolRentalAppConfig.getInstance().getReservationLedger() : null);
+	}
+	
+	/**
+	 * 
+	 * @param checkoutData
+	 * @param inventory inventory that the ordered tools must be in, or null to not check the tools.
+	 */
+	public Checkout(List<CheckoutData> checkoutData, InventoryIndex inventory) {
+		this(checkoutData, inventory, null);
+	}
+	
+	/**
+	 * 
+	 * @param checkoutData
+	 * @param inventory inventory that the ordered tools must be in, or null to not check the tools.
+	 * @param reservationLedger bookings the tools are reserved in, or null to not reserve the tools.
+	 */
+	public Checkout(List<CheckoutData> checkoutData, InventoryIndex inventory, ReservationLedger reservationLedger) {
 		this.checkoutData = checkoutData;
-
+		this.inventory = inventory;
+		this.reservationLedger = reservationLedger;
 	}
 
+	/**
+	 * Calculates the rent of each tool, and then books all the tools for their rental days, or none of them.
+	 * @throws ToolRentalException if the calculation fails for a tool, or if a tool is already booked for one of its days.
+	 */
 	public void doCheckout() throws ToolRentalException {
+		int[][] billableDays = countBillableDays();
+		
 		//Invoke checkout for each tool in the list.
-		for(CheckoutData data : checkoutData) {
-			data.doCheckoutCalculation();
+		for(int i = 0; i < checkoutData.size(); i++) {
+			checkTool(checkoutData.get(i));
+			checkoutData.get(i).doCheckoutCalculation(billableDays[i]);
 		}	
-
+		
+		reserveTools();
 	} 
 	
-	public void createAgreement() {
-		//We need separate Customer class and StoreInfo classes.
-		//Creating some hard-coded values for this demo.
+	/**
+	 * Same as {@link #doCheckout()}, but for large orders the tools are calculated in parallel in the common fork-join pool. <br/>
+	 * The calculation is done for all the tools even if it fails for some of them; the failures are then
+	 * thrown together, in the order of the tools, in one {@link CheckoutBatchException}.
+	 * @throws CheckoutBatchException if the calculation failed for one or more tools.
+	 */
+	public void doCheckoutParallel() throws CheckoutBatchException {
+		int[][] billableDays = countBillableDays();
+		ToolRentalException[] errors = new ToolRentalException[checkoutData.size()];
+		
+		if(checkoutData.size() < PARALLEL_THRESHOLD) {
+			calculate(0, checkoutData.size(), billableDays, errors);
+		} else {
+			ForkJoinPool.commonPool().invoke(new CalculationTask(0, checkoutData.size(), billableDays, errors));
+		}
 		
-		StringBuffer customerInfo = new StringBuffer("Customer:\nJohn Doe\n"); 
-		customerInfo.append("123 Rt 100 \n");
-		customerInfo.append("New City\n");
-		customerInfo.append("NY 111111\n\n");
+		List<CheckoutBatchException.Failure> failures = new ArrayList<CheckoutBatchException.Failure>();
+		for(int i = 0; i < errors.length; i++) {
+			if(errors[i] != null) {
+				failures.add(new CheckoutBatchException.Failure(i, checkoutData.get(i), errors[i]));
+			}
+		}
+		if(!failures.isEmpty()) {
+			throw new CheckoutBatchException(failures);
+		}
+		
+		try {
+			reserveTools();
+		} catch (ReservationConflictException e) {
+			throw new CheckoutBatchException(Collections.singletonList(
+					new CheckoutBatchException.Failure(e.getIndex(), checkoutData.get(e.getIndex()), e)));
+		}
+	}
+	
+	/**
+	 * Books the tools from their checkout date to their due date, all of them or none of them. <br/>
+	 * The bookings of a previous run of the checkout are replaced in the same step, so that running it again
+	 * does not conflict with its own bookings, and keeps them if the new bookings fail.
+	 */
+	private void reserveTools() throws ReservationConflictException {
+		if(reservationLedger == null) {
+			return;
+		}
+		List<Reservation> toolReservations = new ArrayList<Reservation>(checkoutData.size());
+		for(CheckoutData data : checkoutData) {
+			toolReservations.add(new Reservation(data.getTool().getCode(), data.getCheckoutDate(), data.getDueDate()));
+		}
+		reservationLedger.rebook(reservations, toolReservations);
+		reservations = Collections.unmodifiableList(toolReservations);
+	}
+	
+	/**
+	 * Gives the bookings of the tools made by the checkout.
+	 * @return the bookings, in the order of the tools, or an empty list if the tools are not reserved.
+	 */
+	public List<Reservation> getReservations() {
+		return reservations;
+	}
+	
+	/**
+	 * Frees the days booked by the checkout, when its tools are returned or when it is canceled.
+	 */
+	public void releaseReservations() {
+		if(reservationLedger != null) {
+			reservationLedger.releaseAll(reservations);
+		}
+		reservations = Collections.emptyList();
+	}
+	
+	/**
+	 * Checks that the ordered tool exists in the inventory.
+	 */
+	private void checkTool(CheckoutData data) throws ToolRentalException {
+		if(inventory != null && !inventory.containsTool(data.getTool().getCode())) {
+			throw new ToolRentalException(AppErrorMessage.UNKNOWN_TOOL_CODE + data.getTool().getCode());
+		}
+	}
+	
+	/**
+	 * Counts the weekdays, weekend days and holidays for each tool. Tools with the same checkout date and 
+	 * rental day count cover the same days, so the days are counted once for each distinct rental period, 
+	 * and the tools of that period share the same counts.
+	 * @return the counts for each tool, in the order of the tools.
+	 */
+	private int[][] countBillableDays() {
+		DayClassIndex dayClassIndex = ToolRentalAppConfig.getInstance().getDayClassIndex();
+		Map<Long, int[]> countsByPeriod = new HashMap<Long, int[]>();
+		int[][] billableDays = new int[checkoutData.size()][];
 		
-		StringBuffer storeInfo = new StringBuffer("TOOL RENTAL INC.\n");
-		storeInfo.append("New London City\n");
-		storeInfo.append("phone: 1112223334444\n\n");
+		for(int i = 0; i < billableDays.length; i++) {
+			CheckoutData data = checkoutData.get(i);
+			//Rental period key: checkout epoch day in the high 32 bits, rental day count in the low 32 bits.
+			Long period = (data.getCheckoutDate().toEpochDay() << 32) | (data.getRentalDayCount() & 0xFFFFFFFFL);
+			int[] counts = countsByPeriod.get(period);
+			if(counts == null) {
+				counts = dayClassIndex.countBillableDays(data.getCheckoutDate(), data.getCheckoutDate().plusDays(data.getRentalDayCount()));
+				countsByPeriod.put(period, counts);
+			}
+			billableDays[i] = counts;
+		}
+		return billableDays;
+	}
+	
+	/**
+	 * Does the calculation for the tools from index 'from' (inclusive) to 'to' (exclusive), keeping the errors.
+	 */
+	private void calculate(int from, int to, int[][] billableDays, ToolRentalException[] errors) {
+		for(int i = from; i < to; i++) {
+			try {
+				checkTool(checkoutData.get(i));
+				checkoutData.get(i).doCheckoutCalculation(billableDays[i]);
+			} catch (ToolRentalException e) {
+				errors[i] = e;
+			}
+		}
+	}
+	
+	/**
+	 * Fork-join task that splits a range of tools in halves until it is small enough to calculate directly.
+	 */
+	private class CalculationTask extends RecursiveAction {
+		private final int from;
+		private final int to;
+		private final int[][] billableDays;
+		private final ToolRentalException[] errors;
 		
-		//Pass the date formatter. 
-		//In a real scenario, the date format may be specified in an external 
-		//configuration file so that it can be easily updated globally.
-		//Hard-coding for now.
-		String dateFormatPattern = "MM/dd/yy";
+		CalculationTask(int from, int to, int[][] billableDays, ToolRentalException[] errors) {
+			this.from = from;
+			this.to = to;
+			this.billableDays = billableDays;
+			this.errors = errors;
+		}
 		
+		@Override
+		protected void compute() {
+			if(to - from <= TOOLS_PER_TASK) {
+				calculate(from, to, billableDays, errors);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new CalculationTask(from, middle, billableDays, errors), 
+					new CalculationTask(middle, to, billableDays, errors));
+		}
+	}
+	
+	public void createAgreement() {
+		System.out.println("\n\n Printing out Rental Agreement ....\n");
+		try {
+			//As an Appendable, so that the console encodes the text in its own charset.
+			createAgreement((Appendable) System.out);
+		} catch (IOException e) {
+			//Not possible, the console does not throw IOException.
+			throw new IllegalStateException(e);
+		}
+		System.out.flush();
+	}
+	
+	/**
+	 * Writes the rental agreement to an OutputStream, such as a file or a socket, instead of the console.
+	 * It is laid out with the template of the configuration, in the charset of the template.
+	 * @param out the stream is not flushed nor closed.
+	 * @return a future completed once the copy of the agreement is archived, or completed with the error if it can't be.
+	 * null if agreements are not archived.
+	 * @throws IOException if the stream can't be written.
+	 */
+	public Future<Void> createAgreement(OutputStream out) throws IOException {
+		ToolRentalAppConfig config = ToolRentalAppConfig.getInstance();
+		//The date format of the configuration file, compiled once when the configuration is loaded.
+		DateCodec dateCodec = config.getSettings().getDateCodec();
 		RentalAgreement agreement = new RentalAgreement();
 		
-		System.out.println("\n\n Printing out Rental Agreement ....\n");
-		agreement.printRentalAgreement(checkoutData, customerInfo.toString(), storeInfo.toString(), dateFormatPattern);
+		AgreementArchiver archiver = config.getAgreementArchiver();
+		if(archiver == null) {
+			agreement.writeRentalAgreement(config.getAgreementTemplate(), DEMO_STORE, DEMO_CUSTOMER, 
+					checkoutData, dateCodec, out);
+			return null;
+		}
+		//The copy is written in the background, the checkout does not wait for the disk.
+		try {
+			return agreement.writeRentalAgreement(config.getAgreementTemplate(), DEMO_STORE, DEMO_CUSTOMER, 
+					checkoutData, dateCodec, out, archiver, checkoutId);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while archiving the agreement of checkout " + checkoutId);
+		}
+	}
+	
+	/**
+	 * Writes the rental agreement to an Appendable, such as a Writer or the console, as text.
+	 * It is laid out with the template of the configuration. A PrintStream encodes the text in its own charset;
+	 * the archived copy is in the charset of the template.
+	 * @param out a Writer is not flushed nor closed.
+	 * @return a future completed once the copy of the agreement is archived, or completed with the error if it can't be.
+	 * null if agreements are not archived.
+	 * @throws IOException if the Appendable can't be written.
+	 */
+	public Future<Void> createAgreement(Appendable out) throws IOException {
+		ToolRentalAppConfig config = ToolRentalAppConfig.getInstance();
+		DateCodec dateCodec = config.getSettings().getDateCodec();
+		RentalAgreement agreement = new RentalAgreement();
 		
+		AgreementArchiver archiver = config.getAgreementArchiver();
+		if(archiver == null) {
+			agreement.appendRentalAgreement(config.getAgreementTemplate(), DEMO_STORE, DEMO_CUSTOMER, 
+					checkoutData, dateCodec, out);
+			return null;
+		}
+		try {
+			return agreement.appendRentalAgreement(config.getAgreementTemplate(), DEMO_STORE, DEMO_CUSTOMER, 
+					checkoutData, dateCodec, out, archiver, checkoutId);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while archiving the agreement of checkout " + checkoutId);
+		}
+	}
+	
+	/**
+	 * Gives the id of the checkout, to read its archived agreement.
+	 * @return
+	 */
+	public String getCheckoutId() {
+		return checkoutId;
 	}
 }
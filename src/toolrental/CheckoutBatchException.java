@@ -0,0 +1,71 @@
+package toolrental;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exception for a checkout of several tools in which the calculation failed for one or more tools. <br/>
+ * Unlike a plain {@link ToolRentalException}, it collects the failures of all the tools, not only the first one.
+ * @author Binod
+ *
+ */
+public class CheckoutBatchException extends ToolRentalException {
+
+	private final List<Failure> failures;
+
+	public CheckoutBatchException(List<Failure> failures) {
+		super(buildMessage(failures));
+		this.failures = Collections.unmodifiableList(new ArrayList<Failure>(failures));
+	}
+
+	/**
+	 * Gives the failures, in the order of the tools in the checkout.
+	 * @return
+	 */
+	public List<Failure> getFailures() {
+		return failures;
+	}
+
+	private static String buildMessage(List<Failure> failures) {
+		StringBuilder message = new StringBuilder(AppErrorMessage.CHECKOUT_BATCH_FAILED);
+		message.append(failures.size()).append(" tool(s)");
+		for(Failure failure : failures) {
+			message.append(System.lineSeparator()).append("Tool #").append(failure.getIndex() + 1)
+				.append(" (").append(failure.getCheckoutData().getTool().getCode()).append("): ")
+				.append(failure.getException().getMessage());
+		}
+		return message.toString();
+	}
+
+	/**
+	 * Failure of the calculation for one tool of the checkout.
+	 */
+	public static final class Failure {
+		private final int index;
+		private final CheckoutData checkoutData;
+		private final ToolRentalException exception;
+
+		public Failure(int index, CheckoutData checkoutData, ToolRentalException exception) {
+			this.index = index;
+			this.checkoutData = checkoutData;
+			this.exception = exception;
+		}
+
+		/**
+		 * Gives the position of the tool in the checkout, starting from 0.
+		 * @return
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public CheckoutData getCheckoutData() {
+			return checkoutData;
+		}
+
+		public ToolRentalException getException() {
+			return exception;
+		}
+	}
+}
@@ -15,21 +15,17 @@ public class CheckoutData {
   */
 	
 	//Tool to rent out.
-	private Tool tool; 
+	private final Tool tool; 
 	
-	private int totalDayCount;	
+	private final int totalDayCount;	
 	
-	private int discountPercent; 
+	private final int discountPercent; 
 	
-	private LocalDate checkoutDate; 
+	private final LocalDate checkoutDate; 
 	
-	//Below variables are calculated and tracked here to print out in rental agreement.
-	private int numWeekDays, numWeekendDays, numHolidays; 
-	private BigDecimal grossRentAmount;//before discount, rounded to cents
-	private BigDecimal discountAmount; //rounded to cents
-	private BigDecimal netRentAmount;//after discount, rounded to cents
-	private LocalDate dueDate;
-	private int daysCharged;//actual number of days charged
+	//Result of the calculation, tracked here to print out in rental agreement. 
+	//Null until the calculation is done. It is immutable, so it can be shared with other threads.
+	private volatile QuoteResult quoteResult;
 	
 	/**
 	 * 
@@ -61,95 +57,81 @@ public class CheckoutData {
 		return checkoutDate;
 	} 
 	
+	/**
+	 * Gives the result of the calculation.
+	 * @return the result, or null if the calculation is not done yet.
+	 */
+	public QuoteResult getQuoteResult() {
+		return quoteResult;
+	}
+	
 	public LocalDate getDueDate() {
-		return dueDate;
+		QuoteResult result = quoteResult;
+		return result == null ? null : result.getDueDate();
 	}
 	
 	public int getNumWeekDays() {
-		return numWeekDays;
+		QuoteResult result = quoteResult;
+		return result == null ? 0 : result.getNumWeekDays();
 	}
 
 	public int getNumWeekendDays() {
-		return numWeekendDays;
+		QuoteResult result = quoteResult;
+		return result == null ? 0 : result.getNumWeekendDays();
 	}
 
 	public int getNumHolidays() {
-		return numHolidays;
+		QuoteResult result = quoteResult;
+		return result == null ? 0 : result.getNumHolidays();
 	}
 
 	public BigDecimal getGrossRentAmount() {
-		return grossRentAmount;
+		QuoteResult result = quoteResult;
+		return result == null ? null : result.getGrossRentAmount();
 	}
 
 	public BigDecimal getNetRentAmount() {
-		return netRentAmount;
+		QuoteResult result = quoteResult;
+		return result == null ? null : result.getNetRentAmount();
 	} 
 	
 	public BigDecimal getDiscountAmount() {
-		return discountAmount;
+		QuoteResult result = quoteResult;
+		return result == null ? null : result.getDiscountAmount();
 	}
 
 	public int getDaysCharged() {
-		return daysCharged;
+		QuoteResult result = quoteResult;
+		return result == null ? 0 : result.getDaysCharged();
 	}
 	
 	/**
 	 * Performs calculations needed for checkout.
 	 */
 	public void doCheckoutCalculation() throws ToolRentalException{ 
-		
-		//Check if we have discount in the correct range.
-		if(discountPercent < 0 || discountPercent > 100) {
-			throw new ToolRentalException(AppErrorMessage.INVALID_DISCOUNT_PERCENT);
-		}
-		
-		//check if we have rental day number is in the correct range.
-		if(totalDayCount < 1) {
-			throw new ToolRentalException(AppErrorMessage.INVALID_RENTAL_DAY_COUNT);
+		doCheckoutCalculation(null);
+	}
+	
+	/**
+	 * Performs calculations needed for checkout, with the day counts already known. <br/>
+	 * This lets a checkout of many tools count the days only once for all the tools with the same 
+	 * checkout date and rental day count.
+	 * @param billableDays the counts of weekdays, weekend days and holidays, as given by 
+	 * {@link DayClassIndex#countBillableDays(LocalDate, LocalDate)}, or null to count them here.
+	 */
+	void doCheckoutCalculation(int[] billableDays) throws ToolRentalException{ 
+		//The calculation itself is done by QuotePricer, this object only keeps the result.
+		ToolRentalAppConfig config = ToolRentalAppConfig.getInstance();
+		QuoteResult result = QuotePricer.price(tool.getType(), checkoutDate, totalDayCount, discountPercent, 
+				config.getDayClassIndex(), config.getQuoteCache(), billableDays);
+		quoteResult = result;
+		
+		//Nothing is done for the trace unless one is set.
+		CalculationTrace trace = config.getCalculationTrace();
+		if(trace != null) {
+			trace.rentCalculated(tool, result.getNumWeekDays(), result.getNumWeekendDays(), result.getNumHolidays(), 
+					discountPercent, result.getGrossRentAmount(), result.getDiscountAmount(), result.getNetRentAmount());
 		}
-		
-		//Compute the number of weekdays, weekend days, and holidays.
-		dueDate = checkoutDate.plusDays(totalDayCount);
-		int[] billableDays = ToolRentalUtils.countBillableDays(checkoutDate, dueDate); 
-		numWeekDays = billableDays[0];
-		numWeekendDays = billableDays[1]; 
-		numHolidays = billableDays[2];  
-		
-		ToolType toolType = tool.getType();
-		
-		//Do all monetary calculations using BigDecimal class.
-		
-		BigDecimal discountFraction = new BigDecimal(discountPercent).divide(new BigDecimal(100));
-		System.out.println("discountFraction = " + discountFraction);
-		
-		BigDecimal countWeekDays = new BigDecimal(numWeekDays);
-		BigDecimal countWeekendDays = new BigDecimal(numWeekendDays);
-		BigDecimal countHolidDays = new BigDecimal(numHolidays);
-		
-		grossRentAmount = toolType.getWeekdayRent().multiply(countWeekDays) 
-				.add(toolType.getWeekendRent().multiply(countWeekendDays))
-				.add(toolType.getHolidayRent().multiply(countHolidDays));
-		System.out.println("grossRentAmount before rounding = " + grossRentAmount); 
-		grossRentAmount = ToolRentalUtils.roundCurrencyWithHalfUp(grossRentAmount);
-		
-		System.out.println("grossRentAmount after rounding = " + grossRentAmount); 
-		
-		discountAmount = grossRentAmount.multiply(discountFraction); 
-		System.out.println("discountAmount before rounding = " + discountAmount); 
-		
-		discountAmount = ToolRentalUtils.roundCurrencyWithHalfUp(discountAmount); 
-		
-		System.out.println("discountAmount after rounding = " + discountAmount); 
-		
-		netRentAmount = grossRentAmount.subtract(discountAmount) ;
-		System.out.println("netRentAmount  = " + netRentAmount); 
-		
-		//TAXES SKIPPED for this demo.
-		
-		daysCharged = numWeekDays //weekdays are ALWAYS charged 
-				+ (toolType.isChargedWeekend() ? numWeekendDays : 0) 
-				+ (toolType.isChargedHoliday() ? numHolidays : 0);
-		
 	}
 	
 }
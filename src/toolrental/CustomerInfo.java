@@ -0,0 +1,52 @@
+package toolrental;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Customer printed on the rental agreements. <br/>
+ * Instances are immutable, and equal customers share the same pre-encoded header block of a template.
+ * @author Binod
+ *
+ */
+public final class CustomerInfo {
+
+	private final String name;
+	private final List<String> addressLines;
+
+	/**
+	 * 
+	 * @param name
+	 * @param addressLines lines of the address, printed one per line.
+	 */
+	public CustomerInfo(String name, List<String> addressLines) {
+		this.name = name;
+		this.addressLines = Collections.unmodifiableList(new ArrayList<String>(addressLines));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<String> getAddressLines() {
+		return addressLines;
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode() * 31 + addressLines.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof CustomerInfo)) {
+			return false;
+		}
+		CustomerInfo other = (CustomerInfo) obj;
+		return name.equals(other.name) && addressLines.equals(other.addressLines);
+	}
+}
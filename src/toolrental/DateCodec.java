@@ -0,0 +1,369 @@
+package toolrental;
+
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Formats and parses dates with a date format pattern, compiled once and cached per pattern. <br/>
+ * Numeric patterns made of MM, dd, yy or yyyy and separators, such as "MM/dd/yy", "yyyy-MM-dd" or "MM/dd/yyyy",
+ * are formatted and parsed directly, digit by digit, without a DateTimeFormatter. They give the same results as
+ * DateTimeFormatter.ofPattern(), which is still used for all the other patterns and years. <br/>
+ * Codecs are immutable, so they can be shared by all threads.
+ * @author Binod
+ *
+ */
+public final class DateCodec {
+
+	//Patterns compiled so far. Patterns usually come from the configuration, so there are only a few of them,
+	//but the number is bounded in case they come from the callers.
+	private static final int MAX_CACHED_PATTERNS = 64;
+	private static final ConcurrentHashMap<String, DateCodec> CODECS = new ConcurrentHashMap<String, DateCodec>();
+
+	//Separators allowed between the fields of a fast pattern.
+	private static final String FAST_SEPARATORS = "/-. ,:";
+
+	//Steps of a fast pattern.
+	private static final byte LITERAL = 0;
+	private static final byte MONTH = 1;
+	private static final byte DAY = 2;
+	private static final byte YEAR2 = 3;
+	private static final byte YEAR4 = 4;
+
+	//Years of a two digit year, as with DateTimeFormatter.
+	private static final int BASE_YEAR = 2000;
+
+	private final String pattern;
+	private final DateTimeFormatter formatter;
+	//Why the pattern is not valid, or null if it is.
+	private final String error;
+
+	//Steps of the fast path, or null if the pattern has no fast path.
+	private final byte[] steps;
+	private final char[] literals;
+	//Length of a formatted date with the fast path.
+	private final int length;
+	//True if the fast path can parse, that is if the pattern has exactly one month, day and year.
+	private final boolean fastParse;
+
+	private DateCodec(String pattern) {
+		this.pattern = pattern;
+
+		DateTimeFormatter compiled = null;
+		String message = null;
+		try {
+			compiled = DateTimeFormatter.ofPattern(pattern);
+			//Some patterns compile but can't format a date, for example "mm/dd/yy", as mm is for minutes.
+			compiled.format(LocalDate.of(2000, 1, 1));
+		} catch (IllegalArgumentException | DateTimeException e) {
+			compiled = null;
+			message = e.getMessage();
+		}
+		this.formatter = compiled;
+		this.error = message;
+
+		byte[] fastSteps = compiled == null ? null : new byte[pattern.length()];
+		char[] fastLiterals = compiled == null ? null : new char[pattern.length()];
+		int stepCount = 0;
+		int fastLength = 0;
+		int months = 0, days = 0, years = 0;
+		int i = 0;
+		while(fastSteps != null && i < pattern.length()) {
+			char c = pattern.charAt(i);
+			int runEnd = i;
+			while(runEnd < pattern.length() && pattern.charAt(runEnd) == c) {
+				runEnd++;
+			}
+			int run = runEnd - i;
+			if(c == 'M' && run == 2) {
+				fastSteps[stepCount++] = MONTH;
+				fastLength += 2;
+				months++;
+			} else if(c == 'd' && run == 2) {
+				fastSteps[stepCount++] = DAY;
+				fastLength += 2;
+				days++;
+			} else if(c == 'y' && (run == 2 || run == 4)) {
+				fastSteps[stepCount++] = run == 2 ? YEAR2 : YEAR4;
+				fastLength += run;
+				years++;
+			} else if(FAST_SEPARATORS.indexOf(c) >= 0) {
+				for(int j = 0; j < run; j++) {
+					fastLiterals[stepCount] = c;
+					fastSteps[stepCount++] = LITERAL;
+				}
+				fastLength += run;
+			} else {
+				//Text, quotes, optional sections and other fields are left to the formatter.
+				fastSteps = null;
+				break;
+			}
+			i = runEnd;
+		}
+		if(fastSteps == null || stepCount == 0) {
+			this.steps = null;
+			this.literals = null;
+			this.length = 0;
+			this.fastParse = false;
+		} else {
+			this.steps = Arrays.copyOf(fastSteps, stepCount);
+			this.literals = Arrays.copyOf(fastLiterals, stepCount);
+			this.length = fastLength;
+			this.fastParse = months == 1 && days == 1 && years == 1;
+		}
+	}
+
+	/**
+	 * Gives the codec of a date format pattern, compiling it only the first time.
+	 * Patterns that are not valid give a codec that is not valid, rather than an exception.
+	 * @param pattern date format pattern, as for DateTimeFormatter.ofPattern(), for example "MM/dd/yy".
+	 * @return
+	 */
+	public static DateCodec get(String pattern) {
+		DateCodec codec = CODECS.get(pattern);
+		if(codec == null) {
+			codec = new DateCodec(pattern);
+			if(CODECS.size() < MAX_CACHED_PATTERNS) {
+				DateCodec cached = CODECS.putIfAbsent(pattern, codec);
+				if(cached != null) {
+					codec = cached;
+				}
+			}
+		}
+		return codec;
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * Tells if the pattern is valid, that is if it can format a date.
+	 * @return
+	 */
+	public boolean isValid() {
+		return formatter != null;
+	}
+
+	/**
+	 * Gives why the pattern is not valid.
+	 * @return the error message, or null if the pattern is valid.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Gives the formatter of the pattern.
+	 * @return the formatter, or null if the pattern is not valid.
+	 */
+	public DateTimeFormatter getFormatter() {
+		return formatter;
+	}
+
+	/**
+	 * Tells if dates are formatted with the fast path for numeric patterns.
+	 * @return
+	 */
+	public boolean isFast() {
+		return steps != null;
+	}
+
+	/**
+	 * Formats a date.
+	 * @param date
+	 * @return
+	 * @throws DateTimeException if the pattern is not valid, or the date can't be formatted with it.
+	 */
+	public String format(LocalDate date) {
+		if(isFastYear(date)) {
+			StringBuilder buff = new StringBuilder(length);
+			formatFast(date, buff);
+			return buff.toString();
+		}
+		return checkFormatter().format(date);
+	}
+
+	/**
+	 * Formats a date at the end of a StringBuilder, without creating any string with the fast path.
+	 * @param date
+	 * @param buff
+	 * @return the StringBuilder.
+	 * @throws DateTimeException if the pattern is not valid, or the date can't be formatted with it.
+	 */
+	public StringBuilder format(LocalDate date, StringBuilder buff) {
+		if(isFastYear(date)) {
+			formatFast(date, buff);
+		} else {
+			checkFormatter().formatTo(date, buff);
+		}
+		return buff;
+	}
+
+	/**
+	 * Formats a date at the position of a CharBuffer, without creating any string with the fast path.
+	 * @param date
+	 * @param buff
+	 * @return the CharBuffer.
+	 * @throws DateTimeException if the pattern is not valid, or the date can't be formatted with it.
+	 * @throws BufferOverflowException if the buffer has not enough space left. Nothing is written then.
+	 */
+	public CharBuffer format(LocalDate date, CharBuffer buff) {
+		if(!isFastYear(date)) {
+			return buff.put(checkFormatter().format(date));
+		}
+		if(buff.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		for(int i = 0; i < steps.length; i++) {
+			switch(steps[i]) {
+			case LITERAL:
+				buff.put(literals[i]);
+				break;
+			case MONTH:
+				putDigits(buff, date.getMonthValue(), 2);
+				break;
+			case DAY:
+				putDigits(buff, date.getDayOfMonth(), 2);
+				break;
+			case YEAR2:
+				putDigits(buff, date.getYear() % 100, 2);
+				break;
+			default:
+				putDigits(buff, date.getYear(), 4);
+			}
+		}
+		return buff;
+	}
+
+	/**
+	 * Parses a date.
+	 * @param text
+	 * @return
+	 * @throws DateTimeParseException if the text is not a date of the pattern.
+	 * @throws DateTimeException if the pattern is not valid.
+	 */
+	public LocalDate parse(CharSequence text) {
+		return parse(text, 0, text.length());
+	}
+
+	/**
+	 * Parses a date from a part of a text, such as a field of a line, without creating a string with the fast path.
+	 * As with DateTimeFormatter, a day of month that is past the end of the month, for example 02/30/20,
+	 * gives the last day of the month.
+	 * @param text
+	 * @param start index of the first character of the date.
+	 * @param end index after the last character of the date.
+	 * @return
+	 * @throws DateTimeParseException if the text is not a date of the pattern.
+	 * @throws DateTimeException if the pattern is not valid.
+	 */
+	public LocalDate parse(CharSequence text, int start, int end) {
+		if(fastParse && end - start == length) {
+			LocalDate date = parseFast(text, start);
+			if(date != null) {
+				return date;
+			}
+		}
+		//Not a fast pattern, or not a valid date, in which case the formatter gives the error.
+		return LocalDate.from(checkFormatter().parse(text.subSequence(start, end)));
+	}
+
+	/**
+	 * Parses a date with the fast path.
+	 * @return the date, or null if the text is not a valid date.
+	 */
+	private LocalDate parseFast(CharSequence text, int start) {
+		int month = 0, day = 0, year = 0;
+		int position = start;
+		for(int i = 0; i < steps.length; i++) {
+			if(steps[i] == LITERAL) {
+				if(text.charAt(position++) != literals[i]) {
+					return null;
+				}
+				continue;
+			}
+			int width = steps[i] == YEAR4 ? 4 : 2;
+			int value = 0;
+			for(int j = 0; j < width; j++) {
+				int digit = text.charAt(position++) - '0';
+				if(digit < 0 || digit > 9) {
+					return null;
+				}
+				value = value * 10 + digit;
+			}
+			switch(steps[i]) {
+			case MONTH:
+				month = value;
+				break;
+			case DAY:
+				day = value;
+				break;
+			case YEAR2:
+				year = BASE_YEAR + value;
+				break;
+			default:
+				year = value;
+			}
+		}
+		if(month < 1 || month > 12 || day < 1 || day > 31 || year < 1) {
+			return null;
+		}
+		return LocalDate.of(year, month, Math.min(day, Month.of(month).length(Year.isLeap(year))));
+	}
+
+	private void formatFast(LocalDate date, StringBuilder buff) {
+		for(int i = 0; i < steps.length; i++) {
+			switch(steps[i]) {
+			case LITERAL:
+				buff.append(literals[i]);
+				break;
+			case MONTH:
+				appendDigits(buff, date.getMonthValue(), 2);
+				break;
+			case DAY:
+				appendDigits(buff, date.getDayOfMonth(), 2);
+				break;
+			case YEAR2:
+				appendDigits(buff, date.getYear() % 100, 2);
+				break;
+			default:
+				appendDigits(buff, date.getYear(), 4);
+			}
+		}
+	}
+
+	/**
+	 * Tells if a date can be formatted with the fast path.
+	 * Years before 1 and after 9999 are written with an era or a sign by the formatter.
+	 */
+	private boolean isFastYear(LocalDate date) {
+		return steps != null && date.getYear() >= 1 && date.getYear() <= 9999;
+	}
+
+	private DateTimeFormatter checkFormatter() {
+		if(formatter == null) {
+			throw new DateTimeException("Date format pattern is not valid : " + pattern + ": " + error);
+		}
+		return formatter;
+	}
+
+	private static void appendDigits(StringBuilder buff, int value, int width) {
+		for(int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+			buff.append((char) ('0' + value / divisor % 10));
+		}
+	}
+
+	private static void putDigits(CharBuffer buff, int value, int width) {
+		for(int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+			buff.put((char) ('0' + value / divisor % 10));
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package toolrental;
+
+import java.math.BigDecimal;
+
+/**
+ * Rent calculations done with integer arithmetic on fixed-point amounts, as a faster alternative to BigDecimal. <br/>
+ * Daily rents are kept as a long count of rate units (1/10000 of a dollar), and money amounts as a long count of cents.
+ * Rounding is HALF_UP, so the results are exactly the same as rounding the BigDecimal amounts with
+ * {@link ToolRentalUtils#roundCurrencyWithHalfUp(BigDecimal)}. Amounts are converted to BigDecimal only when handed out.
+ * @author Binod
+ *
+ */
+public class FixedPointPricing {
+
+	//Number of decimal digits kept for daily rents.
+	public static final int RATE_SCALE = 4;
+
+	//Number of decimal digits kept for money amounts.
+	public static final int CURRENCY_SCALE = 2;
+
+	//Number of rate units in one cent.
+	private static final long RATE_UNITS_PER_CENT = 100;
+
+	/**
+	 * Converts a daily rent to rate units.
+	 * @param rent
+	 * @return
+	 * @throws ArithmeticException if the rent has more than RATE_SCALE decimal digits, or does not fit in a long.
+	 */
+	public static long toRateUnits(BigDecimal rent) {
+		return rent.movePointRight(RATE_SCALE).longValueExact();
+	}
+
+	/**
+	 * Computes the rent before discount, rounded to cents.
+	 * @param toolType tool type with fixed-point rents, see {@link ToolType#hasFixedPointRents()}.
+	 * @param weekDays
+	 * @param weekendDays
+	 * @param holidays
+	 * @return rent in cents
+	 * @throws ArithmeticException if the rent does not fit in a long.
+	 */
+	public static long grossRentCents(ToolType toolType, int weekDays, int weekendDays, int holidays) {
+		long rateUnits = Math.addExact(
+				Math.addExact(Math.multiplyExact(toolType.getWeekdayRentUnits(), weekDays),
+						Math.multiplyExact(toolType.getWeekendRentUnits(), weekendDays)),
+				Math.multiplyExact(toolType.getHolidayRentUnits(), holidays));
+		return roundHalfUp(rateUnits, RATE_UNITS_PER_CENT);
+	}
+
+	/**
+	 * Computes the discount on a rent, rounded to cents.
+	 * @param grossCents rent before discount, in cents
+	 * @param discountPercent
+	 * @return discount in cents
+	 * @throws ArithmeticException if the discount does not fit in a long.
+	 */
+	public static long discountCents(long grossCents, int discountPercent) {
+		return roundHalfUp(Math.multiplyExact(grossCents, discountPercent), 100);
+	}
+
+	/**
+	 * Converts cents to a money amount with 2 decimal digits.
+	 * @param cents
+	 * @return
+	 */
+	public static BigDecimal toCurrency(long cents) {
+		return BigDecimal.valueOf(cents, CURRENCY_SCALE);
+	}
+
+	/**
+	 * Divides a value using the HALF_UP strategy: ties are rounded away from zero, the same as RoundingMode.HALF_UP.
+	 * @param value
+	 * @param divisor must be positive
+	 * @return
+	 */
+	public static long roundHalfUp(long value, long divisor) {
+		long quotient = value / divisor;
+		long remainder = value % divisor;
+		if(Math.abs(remainder) >= divisor - Math.abs(remainder)) {
+			quotient += Long.signum(value);
+		}
+		return quotient;
+	}
+}
@@ -0,0 +1,135 @@
+package toolrental;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calendar of the observed holidays. <br/>
+ * The observed holidays of a year are computed only once, the first time the year is asked for,
+ * and kept as a small sorted array of epoch days. After that, testing a date for a holiday is a single lookup
+ * and does not need any date arithmetic. <br/>
+ * The holidays come from a list of {@link HolidayRule}s, so adding more holidays only makes the one-time
+ * computation per year longer and does not slow down the lookups.
+ * @author Binod
+ *
+ */
+public class HolidayCalendar {
+
+	//Calendar with the holidays required for this project: Independence Day and Labor Day.
+	private static final HolidayCalendar DEFAULT = new HolidayCalendar(HolidayRule.DEFAULT_RULES);
+
+	private final List<HolidayRule> rules;
+
+	//Observed holidays per year, as sorted epoch days.
+	private final ConcurrentMap<Integer, int[]> holidaysByYear = new ConcurrentHashMap<Integer, int[]>();
+
+	//Most recently used year, checked first to skip the map lookup when consecutive dates share a year.
+	private volatile YearHolidays lastYear = new YearHolidays(Integer.MIN_VALUE, new int[0]);
+
+	public HolidayCalendar(List<HolidayRule> rules) {
+		this.rules = Collections.unmodifiableList(new ArrayList<HolidayRule>(rules));
+	}
+
+	public static HolidayCalendar getDefault() {
+		return DEFAULT;
+	}
+
+	public List<HolidayRule> getRules() {
+		return rules;
+	}
+
+	/**
+	 * Tests if a date is an observed holiday.
+	 * @param date
+	 * @return
+	 */
+	public boolean isHoliday(LocalDate date) {
+		return Arrays.binarySearch(getHolidays(date.getYear()), (int) date.toEpochDay()) >= 0;
+	}
+
+	/**
+	 * Counts the observed holidays between two dates, excluding the start date and including the end date.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public int countHolidays(LocalDate start, LocalDate end) {
+		long firstDay = start.toEpochDay() + 1;
+		long lastDay = end.toEpochDay();
+		int holidays = 0;
+		for(int year = start.getYear(); year <= end.getYear(); year++) {
+			for(int holiday : getHolidays(year)) {
+				if(holiday >= firstDay && holiday <= lastDay) {
+					holidays++;
+				}
+			}
+		}
+		return holidays;
+	}
+
+	/**
+	 * Gives the observed holidays of a year as sorted epoch days. The returned array must not be modified.
+	 * @param year
+	 * @return
+	 */
+	public int[] getHolidays(int year) {
+		YearHolidays last = lastYear;
+		if(last.year == year) {
+			return last.holidays;
+		}
+		int[] holidays = holidaysByYear.get(year);
+		if(holidays == null) {
+			holidays = computeHolidays(year);
+			int[] existing = holidaysByYear.putIfAbsent(year, holidays);
+			if(existing != null) {
+				holidays = existing;
+			}
+		}
+		lastYear = new YearHolidays(year, holidays);
+		return holidays;
+	}
+
+	/**
+	 * Computes the observed holidays of a year from the rules. Called only once per year.
+	 */
+	private int[] computeHolidays(int year) {
+		List<LocalDate> dates = new ArrayList<LocalDate>();
+		//A holiday of the next or previous year may be observed in this year, for example
+		//New Year's Day falling on Saturday is observed on December 31st.
+		for(int ruleYear = year - 1; ruleYear <= year + 1; ruleYear++) {
+			for(HolidayRule rule : rules) {
+				LocalDate date = rule.getDate(ruleYear);
+				//A holiday falling on a weekend is not observed, the weekend day is not affected by holiday.
+				if(date != null && date.getYear() == year 
+						&& !ToolRentalUtils.isWeekend(date.getDayOfWeek().getValue()) && !dates.contains(date)) {
+					dates.add(date);
+				}
+			}
+		}
+
+		int[] holidays = new int[dates.size()];
+		for(int i = 0; i < holidays.length; i++) {
+			holidays[i] = (int) dates.get(i).toEpochDay();
+		}
+		Arrays.sort(holidays);
+		return holidays;
+	}
+
+	/**
+	 * Holidays of one year, kept together so both can be read with a single volatile read.
+	 */
+	private static class YearHolidays {
+		private final int year;
+		private final int[] holidays;
+
+		YearHolidays(int year, int[] holidays) {
+			this.year = year;
+			this.holidays = holidays;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package toolrental;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rule to find the date on which a holiday is observed in a given year. <br/>
+ * Rules can be declared in the configuration file (tool-rental-config.txt), one property per holiday,
+ * with the key starting with "holiday.". Supported formats are: <br/>
+ * a) fixed, month, day[, observed] : fixed date, for example "fixed, JULY, 4, observed". With "observed", a holiday
+ * falling on Saturday is observed on the Friday before, and one falling on Sunday on the Monday after. <br/>
+ * b) nth, n, dayOfWeek, month : nth day of week of a month, for example "nth, 1, MONDAY, SEPTEMBER". <br/>
+ * c) last, dayOfWeek, month : last day of week of a month, for example "last, MONDAY, MAY". <br/>
+ * Month can be given by name or by number.
+ * @author Binod
+ *
+ */
+public abstract class HolidayRule {
+
+	//Independence Day, July 4th, observed on the closest weekday if it falls on a weekend.
+	public static final HolidayRule INDEPENDENCE_DAY = fixedDate(Month.JULY, 4, true);
+
+	//Labor Day, the first Monday in September.
+	public static final HolidayRule LABOR_DAY = nthWeekday(1, DayOfWeek.MONDAY, Month.SEPTEMBER);
+
+	//Holidays used when no holiday is declared in the configuration file.
+	public static final List<HolidayRule> DEFAULT_RULES = Collections.unmodifiableList(Arrays.asList(INDEPENDENCE_DAY, LABOR_DAY));
+
+	/**
+	 * Gives the date the holiday falls on, or is observed on, in the given year.
+	 * @param year
+	 * @return the date, or null if the holiday does not occur in that year.
+	 */
+	public abstract LocalDate getDate(int year);
+
+	public static HolidayRule fixedDate(Month month, int dayOfMonth, boolean observedOnWeekday) {
+		return new FixedDateRule(month, dayOfMonth, observedOnWeekday);
+	}
+
+	public static HolidayRule nthWeekday(int n, DayOfWeek dayOfWeek, Month month) {
+		return new NthWeekdayRule(n, dayOfWeek, month);
+	}
+
+	public static HolidayRule lastWeekday(DayOfWeek dayOfWeek, Month month) {
+		return new LastWeekdayRule(dayOfWeek, month);
+	}
+
+	/**
+	 * Creates a holiday rule from its specification in the configuration file. See the class comment for the format.
+	 * @param ruleSpec
+	 * @return
+	 * @throws ToolRentalException if the specification is not valid.
+	 */
+	public static HolidayRule parse(String ruleSpec) throws ToolRentalException {
+		String[] items = ruleSpec.trim().split("\\s*,\\s*");
+		String kind = items[0].toLowerCase();
+
+		try {
+			if(kind.equals("fixed") && (items.length == 3 || items.length == 4)) {
+				boolean observed = false;
+				if(items.length == 4) {
+					if(!items[3].equalsIgnoreCase("observed")) {
+						throw new ToolRentalException(AppErrorMessage.INVALID_HOLIDAY_RULE + ruleSpec + ": Unknown option " + items[3]);
+					}
+					observed = true;
+				}
+				Month month = parseMonth(items[1]);
+				int day = Integer.parseInt(items[2]);
+				//Validates the day for the month, using a leap year so that February 29th is allowed.
+				LocalDate.of(2000, month, day);
+				return fixedDate(month, day, observed);
+			}
+			if(kind.equals("nth") && items.length == 4) {
+				int n = Integer.parseInt(items[1]);
+				if(n < 1 || n > 5) {
+					throw new ToolRentalException(AppErrorMessage.INVALID_HOLIDAY_RULE + ruleSpec + ": n should be 1 to 5");
+				}
+				return nthWeekday(n, DayOfWeek.valueOf(items[2].toUpperCase()), parseMonth(items[3]));
+			}
+			if(kind.equals("last") && items.length == 3) {
+				return lastWeekday(DayOfWeek.valueOf(items[1].toUpperCase()), parseMonth(items[2]));
+			}
+		} catch (RuntimeException e) {
+			//Covers invalid numbers, unknown month or day names, and invalid dates.
+			throw new ToolRentalException(AppErrorMessage.INVALID_HOLIDAY_RULE + ruleSpec + ": " + e.getMessage());
+		}
+
+		throw new ToolRentalException(AppErrorMessage.INVALID_HOLIDAY_RULE + ruleSpec + ": Unknown format");
+	}
+
+	private static Month parseMonth(String month) {
+		if(Character.isDigit(month.charAt(0))) {
+			return Month.of(Integer.parseInt(month));
+		}
+		return Month.valueOf(month.toUpperCase());
+	}
+
+	private static class FixedDateRule extends HolidayRule {
+		private final Month month;
+		private final int dayOfMonth;
+		private final boolean observedOnWeekday;
+
+		FixedDateRule(Month month, int dayOfMonth, boolean observedOnWeekday) {
+			this.month = month;
+			this.dayOfMonth = dayOfMonth;
+			this.observedOnWeekday = observedOnWeekday;
+		}
+
+		@Override
+		public LocalDate getDate(int year) {
+			//February 29th falls on February 28th in a non-leap year.
+			LocalDate date = LocalDate.of(year, month, Math.min(dayOfMonth, month.length(Year.isLeap(year))));
+			if(observedOnWeekday) {
+				if(date.getDayOfWeek() == DayOfWeek.SATURDAY) {
+					return date.minusDays(1);
+				}
+				if(date.getDayOfWeek() == DayOfWeek.SUNDAY) {
+					return date.plusDays(1);
+				}
+			}
+			return date;
+		}
+	}
+
+	private static class NthWeekdayRule extends HolidayRule {
+		private final int n;
+		private final DayOfWeek dayOfWeek;
+		private final Month month;
+
+		NthWeekdayRule(int n, DayOfWeek dayOfWeek, Month month) {
+			this.n = n;
+			this.dayOfWeek = dayOfWeek;
+			this.month = month;
+		}
+
+		@Override
+		public LocalDate getDate(int year) {
+			LocalDate date = LocalDate.of(year, month, 1).with(TemporalAdjusters.dayOfWeekInMonth(n, dayOfWeek));
+			//A fifth day of week that does not exist in the month is not a holiday that year.
+			return date.getMonth() == month ? date : null;
+		}
+	}
+
+	private static class LastWeekdayRule extends HolidayRule {
+		private final DayOfWeek dayOfWeek;
+		private final Month month;
+
+		LastWeekdayRule(DayOfWeek dayOfWeek, Month month) {
+			this.dayOfWeek = dayOfWeek;
+			this.month = month;
+		}
+
+		@Override
+		public LocalDate getDate(int year) {
+			return LocalDate.of(year, month, 1).with(TemporalAdjusters.lastInMonth(dayOfWeek));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package toolrental;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes to an inventory, keyed by tool code, to apply to the loaded inventory without reloading it. <br/>
+ * A delta file has one change per line: <br/>
+ * + toolSpec - adds a tool, for example "+ Ladder,Werner,LADX,1.99,1.99,0". <br/>
+ * ~ toolSpec - replaces the tool with the same tool code, for example to change its rents. <br/>
+ * - toolCode - removes a tool. <br/>
+ * Blank lines and lines starting with # are skipped. Changes are applied in the order of the file.
+ * @author Binod
+ *
+ */
+public class InventoryDelta {
+
+	public static final char ADD = '+';
+	public static final char UPDATE = '~';
+	public static final char REMOVE = '-';
+
+	private final String name;
+	private final List<Change> changes;
+
+	/**
+	 *
+	 * @param name name of the delta, such as its file name, for the error messages.
+	 * @param changes
+	 */
+	public InventoryDelta(String name, List<Change> changes) {
+		this.name = name;
+		this.changes = Collections.unmodifiableList(new ArrayList<Change>(changes));
+	}
+
+	/**
+	 * Reads a delta file. All the invalid lines are reported together.
+	 * @param file
+	 * @param registry registry of shared tool types and strings, or null to create new ones for every tool.
+	 * @return
+	 * @throws IOException if the file can't be read.
+	 * @throws InventoryLoadException if one or more lines are not valid changes.
+	 */
+	public static InventoryDelta read(Path file, ToolTypeRegistry registry) throws IOException, InventoryLoadException {
+		ToolSpecParser parser = new ToolSpecParser(registry);
+		List<Change> changes = new ArrayList<Change>();
+		List<InventoryLoadException.LineError> lineErrors = new ArrayList<InventoryLoadException.LineError>();
+		try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			int lineNumber = 0;
+			while (true) {
+				String line = br.readLine();
+				if(line == null) {
+					break;
+				}
+				lineNumber++;
+				line = line.trim();
+				if(line.startsWith("#") || line.equals("")) {
+					continue;
+				}
+				try {
+					changes.add(parseChange(line, lineNumber, parser));
+				} catch (ToolRentalException e) {
+					lineErrors.add(new InventoryLoadException.LineError(lineNumber, e.getMessage()));
+				}
+			}
+		}
+		if(!lineErrors.isEmpty()) {
+			throw new InventoryLoadException(file.toString(), lineErrors);
+		}
+		return new InventoryDelta(file.toString(), changes);
+	}
+
+	private static Change parseChange(String line, int lineNumber, ToolSpecParser parser) throws ToolRentalException {
+		char operation = line.charAt(0);
+		switch(operation) {
+		case ADD:
+		case UPDATE:
+			return new Change(operation, parser.parse(line, 1, line.length()), null, lineNumber);
+		case REMOVE:
+			String code = line.substring(1).trim();
+			if(code.isEmpty()) {
+				throw new ToolRentalException(AppErrorMessage.INVALID_INVENTORY_CHANGE + line + ": Tool code is missing");
+			}
+			return new Change(operation, null, code.toUpperCase(), lineNumber);
+		default:
+			throw new ToolRentalException(AppErrorMessage.INVALID_INVENTORY_CHANGE + line
+					+ ": Line should start with " + ADD + ", " + UPDATE + " or " + REMOVE);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gives the changes, in the order they are applied.
+	 * @return
+	 */
+	public List<Change> getChanges() {
+		return changes;
+	}
+
+	public int size() {
+		return changes.size();
+	}
+
+	/**
+	 * One change of a delta.
+	 */
+	public static final class Change {
+		private final char operation;
+		private final Tool tool;
+		private final String code;
+		private final long lineNumber;
+
+		/**
+		 *
+		 * @param operation ADD, UPDATE or REMOVE.
+		 * @param tool tool to add, or new version of the tool to update. Null to remove.
+		 * @param code tool code to remove. Ignored if there is a tool.
+		 * @param lineNumber line of the change in the delta file, starting from 1, for the error messages.
+		 */
+		public Change(char operation, Tool tool, String code, long lineNumber) {
+			this.operation = operation;
+			this.tool = tool;
+			this.code = tool == null ? code.toUpperCase() : tool.getCode();
+			this.lineNumber = lineNumber;
+		}
+
+		public char getOperation() {
+			return operation;
+		}
+
+		public Tool getTool() {
+			return tool;
+		}
+
+		/**
+		 * Gives the uppercase tool code of the tool changed.
+		 * @return
+		 */
+		public String getCode() {
+			return code;
+		}
+
+		public long getLineNumber() {
+			return lineNumber;
+		}
+	}
+}
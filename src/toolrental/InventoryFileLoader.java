@@ -0,0 +1,260 @@
+package toolrental;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loader of large inventory files. <br/>
+ * The file is split into chunks that end at a line end, and the chunks are memory-mapped and parsed in parallel.
+ * The tools are then merged in the order of the file. <br/>
+ * Lines are read as UTF-8. Blank lines and lines starting with # are skipped, as in the inventory file format.
+ * All the invalid lines are reported together, with their line numbers, in an {@link InventoryLoadException}.
+ * @author Binod
+ *
+ */
+public class InventoryFileLoader {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	//Number of chunks parsed by one fork-join task without splitting further.
+	private static final int CHUNKS_PER_TASK = 1;
+
+	private final ToolTypeRegistry registry;
+	private final int chunkSize;
+
+	public InventoryFileLoader(ToolTypeRegistry registry) {
+		this(registry, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 *
+	 * @param registry registry of shared tool types and strings, or null to create new ones for every tool.
+	 * @param chunkSize approximate size in bytes of the parts of the file parsed in parallel.
+	 */
+	public InventoryFileLoader(ToolTypeRegistry registry, int chunkSize) {
+		if(chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size should be 1 or more.");
+		}
+		this.registry = registry;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Loads the tools of an inventory file.
+	 * @param file
+	 * @return the tools, in the order of the file.
+	 * @throws IOException if the file can't be read.
+	 * @throws InventoryLoadException if one or more lines are not valid tool specs.
+	 */
+	public List<Tool> load(Path file) throws IOException, InventoryLoadException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long[] boundaries = findChunkBoundaries(channel);
+			Chunk[] chunks = new Chunk[boundaries.length - 1];
+			for(int i = 0; i < chunks.length; i++) {
+				long length = boundaries[i + 1] - boundaries[i];
+				if(length > Integer.MAX_VALUE) {
+					throw new IOException("Line is too long in " + file);
+				}
+				chunks[i] = new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, boundaries[i], length));
+			}
+
+			if(chunks.length <= CHUNKS_PER_TASK) {
+				parse(chunks, 0, chunks.length);
+			} else {
+				ForkJoinPool.commonPool().invoke(new ParseTask(chunks, 0, chunks.length));
+			}
+
+			//Merge the chunks. Line numbers of the errors become line numbers in the file.
+			int toolCount = 0;
+			for(Chunk chunk : chunks) {
+				toolCount += chunk.tools.size();
+			}
+			List<Tool> tools = new ArrayList<Tool>(toolCount);
+			List<InventoryLoadException.LineError> lineErrors = new ArrayList<InventoryLoadException.LineError>();
+			long linesBefore = 0;
+			for(Chunk chunk : chunks) {
+				tools.addAll(chunk.tools);
+				for(int i = 0; i < chunk.errorLines.size(); i++) {
+					lineErrors.add(new InventoryLoadException.LineError(linesBefore + chunk.errorLines.get(i),
+							chunk.errorMessages.get(i)));
+				}
+				linesBefore += chunk.lineCount;
+			}
+
+			if(!lineErrors.isEmpty()) {
+				throw new InventoryLoadException(file.toString(), lineErrors);
+			}
+			return tools;
+		}
+	}
+
+	/**
+	 * Splits the file into chunks of about the chunk size, each one ending just after a line end, or at the end of the file.
+	 * @return the start of every chunk, followed by the file size.
+	 */
+	private long[] findChunkBoundaries(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Long> boundaries = new ArrayList<Long>();
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long start = 0;
+		boundaries.add(start);
+		while(start < size) {
+			long end = start + chunkSize;
+			if(end >= size) {
+				end = size;
+			} else {
+				end = findLineEnd(channel, end - 1, size, buffer);
+			}
+			boundaries.add(end);
+			start = end;
+		}
+		if(size == 0) {
+			boundaries.add(size);
+		}
+
+		long[] result = new long[boundaries.size()];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = boundaries.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Gives the position just after the first line end at or after a position, or the file size if there is none.
+	 */
+	private static long findLineEnd(FileChannel channel, long position, long size, ByteBuffer buffer) throws IOException {
+		while(position < size) {
+			buffer.clear();
+			int count = channel.read(buffer, position);
+			if(count <= 0) {
+				break;
+			}
+			for(int i = 0; i < count; i++) {
+				if(buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += count;
+		}
+		return size;
+	}
+
+	private void parse(Chunk[] chunks, int from, int to) {
+		for(int i = from; i < to; i++) {
+			parse(chunks[i]);
+		}
+	}
+
+	/**
+	 * Parses the lines of a chunk. A line end is a byte 10 in UTF-8, so lines can be found without decoding the chunk.
+	 */
+	private void parse(Chunk chunk) {
+		MappedByteBuffer buffer = chunk.buffer;
+		int limit = buffer.limit();
+		//One parser, decoder and line buffer for the whole chunk, reused for every line.
+		ToolSpecParser parser = new ToolSpecParser(registry);
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer line = CharBuffer.allocate(256);
+		int lineStart = 0;
+		int lineNumber = 0;
+		while(lineStart < limit) {
+			lineNumber++;
+			int lineEnd = lineStart;
+			while(lineEnd < limit && buffer.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			//A line of UTF-8 never has more characters than bytes.
+			if(lineEnd - lineStart > line.capacity()) {
+				line = CharBuffer.allocate(lineEnd - lineStart);
+			}
+			parseLine(chunk, buffer, lineStart, lineEnd, lineNumber, parser, decoder, line);
+			lineStart = lineEnd + 1;
+		}
+		chunk.lineCount = lineNumber;
+		chunk.buffer = null;
+	}
+
+	private void parseLine(Chunk chunk, MappedByteBuffer buffer, int start, int end, int lineNumber,
+			ToolSpecParser parser, CharsetDecoder decoder, CharBuffer line) {
+		//Skip blank lines and comments before decoding anything. Same white space as String.trim().
+		int first = start;
+		while(first < end && (buffer.get(first) & 0xFF) <= ' ') {
+			first++;
+		}
+		if(first == end || buffer.get(first) == '#') {
+			return;
+		}
+
+		//Decode the line into the reused buffer, and parse it from there without creating a string.
+		buffer.limit(end).position(first);
+		line.clear();
+		decoder.reset();
+		decoder.decode(buffer, line, true);
+		decoder.flush(line);
+		line.flip();
+		buffer.clear();
+
+		try {
+			chunk.tools.add(parser.parse(line));
+		} catch (ToolRentalException | RuntimeException e) {
+			chunk.errorLines.add(lineNumber);
+			chunk.errorMessages.add(e.getMessage());
+		}
+	}
+
+	/**
+	 * Part of the file, with the results of its parsing.
+	 */
+	private static final class Chunk {
+		private MappedByteBuffer buffer;
+		private final List<Tool> tools = new ArrayList<Tool>();
+		//Line numbers in the chunk, starting from 1, and messages of the invalid lines.
+		private final List<Integer> errorLines = new ArrayList<Integer>();
+		private final List<String> errorMessages = new ArrayList<String>();
+		private int lineCount;
+
+		Chunk(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Fork-join task parsing a range of chunks, splitting it in halves until it is small enough.
+	 */
+	private class ParseTask extends RecursiveAction {
+		private final Chunk[] chunks;
+		private final int from;
+		private final int to;
+
+		ParseTask(Chunk[] chunks, int from, int to) {
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= CHUNKS_PER_TASK) {
+				parse(chunks, from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ParseTask(chunks, from, middle),
+					new ParseTask(chunks, middle, to));
+		}
+	}
+}
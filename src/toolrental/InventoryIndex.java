@@ -0,0 +1,335 @@
+package toolrental;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inventory of tools, indexed for constant-time lookups. <br/>
+ * Tools are indexed by tool code, and also by tool type and by brand. All keys are compared ignoring case:
+ * tool codes are already stored as uppercase strings, and types and brands are indexed by their uppercase form. <br/>
+ * The index is immutable once built, so it can be read by any number of threads without locking.
+ * A changed inventory is a new index, with a higher version number. <br/>
+ * <br/>
+ * The maps of the index are {@link PersistentMap}s: the tools of each type and of each brand are kept in a map
+ * by tool code, inside a map by type or brand. An {@link InventoryDelta} is applied without rebuilding or copying
+ * any of them: each change copies only the few nodes on the path to the changed tool code, type and brand, and the
+ * new index shares everything else with the index it was made from. Applying a delta costs about the number of
+ * changes, whatever the size of the inventory and of the types and brands it changes. <br/>
+ * The lists of all the tools, and of the tools of a type or brand, are built from the maps when first asked for.
+ * @author Binod
+ *
+ */
+public final class InventoryIndex {
+
+	private static final Comparator<Slot> BY_ORDER = new Comparator<Slot>() {
+		@Override
+		public int compare(Slot slot1, Slot slot2) {
+			return Long.compare(slot1.order, slot2.order);
+		}
+	};
+
+	private final long version;
+
+	private final PersistentMap<String, Slot> toolsByCode;
+	//Tools of each uppercase type and brand, by tool code.
+	private final PersistentMap<String, PersistentMap<String, Slot>> toolsByType;
+	private final PersistentMap<String, PersistentMap<String, Slot>> toolsByBrand;
+	//Order of the next tool added.
+	private final long nextOrder;
+
+	//Lists built when first asked for.
+	private volatile List<Tool> tools;
+	private final ConcurrentHashMap<String, List<Tool>> typeLists = new ConcurrentHashMap<String, List<Tool>>();
+	private final ConcurrentHashMap<String, List<Tool>> brandLists = new ConcurrentHashMap<String, List<Tool>>();
+
+	public InventoryIndex(Collection<Tool> tools) throws ToolRentalException {
+		this(tools, 0);
+	}
+
+	/**
+	 *
+	 * @param tools tools of the inventory.
+	 * @param version version number of the inventory.
+	 * @throws ToolRentalException if two tools have the same tool code.
+	 */
+	public InventoryIndex(Collection<Tool> tools, long version) throws ToolRentalException {
+		this.version = version;
+		PersistentMap.Builder<String, Slot> byCode = new PersistentMap.Builder<String, Slot>();
+		Map<String, PersistentMap.Builder<String, Slot>> byType = new HashMap<String, PersistentMap.Builder<String, Slot>>();
+		Map<String, PersistentMap.Builder<String, Slot>> byBrand = new HashMap<String, PersistentMap.Builder<String, Slot>>();
+		//The lists of the new index are the lists of the tools given, no need to build them from the maps.
+		Map<String, List<Tool>> typeLists = new HashMap<String, List<Tool>>();
+		Map<String, List<Tool>> brandLists = new HashMap<String, List<Tool>>();
+
+		long order = 0;
+		for(Tool tool : tools) {
+			Slot slot = new Slot(tool, order++);
+			byCode.put(tool.getCode(), slot);
+			if(byCode.size() != order) {
+				throw new ToolRentalException(AppErrorMessage.DUPLICATE_TOOL_CODE + tool.getCode());
+			}
+			addTo(byType, typeLists, tool.getType().getToolTtype(), slot);
+			addTo(byBrand, brandLists, tool.getBrand(), slot);
+		}
+
+		this.toolsByCode = byCode.build();
+		this.toolsByType = build(byType);
+		this.toolsByBrand = build(byBrand);
+		this.nextOrder = order;
+		this.tools = Collections.unmodifiableList(new ArrayList<Tool>(tools));
+		for(Map.Entry<String, List<Tool>> entry : typeLists.entrySet()) {
+			this.typeLists.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+		}
+		for(Map.Entry<String, List<Tool>> entry : brandLists.entrySet()) {
+			this.brandLists.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+		}
+	}
+
+	private InventoryIndex(PersistentMap<String, Slot> toolsByCode, PersistentMap<String, PersistentMap<String, Slot>> toolsByType,
+			PersistentMap<String, PersistentMap<String, Slot>> toolsByBrand, long nextOrder, long version) {
+		this.version = version;
+		this.toolsByCode = toolsByCode;
+		this.toolsByType = toolsByType;
+		this.toolsByBrand = toolsByBrand;
+		this.nextOrder = nextOrder;
+		this.tools = null;
+	}
+
+	/**
+	 * Applies a delta, giving a new index with the next version number. This index is not changed. <br/>
+	 * The delta is applied entirely or not at all.
+	 * @param delta
+	 * @return
+	 * @throws InventoryLoadException if a tool to add is already in the inventory, or a tool to update or remove is not.
+	 * All such changes are reported, with their line numbers.
+	 */
+	public InventoryIndex applyDelta(InventoryDelta delta) throws InventoryLoadException {
+		PersistentMap<String, Slot> newByCode = toolsByCode;
+		PersistentMap<String, PersistentMap<String, Slot>> newByType = toolsByType;
+		PersistentMap<String, PersistentMap<String, Slot>> newByBrand = toolsByBrand;
+		long order = nextOrder;
+		List<InventoryLoadException.LineError> lineErrors = new ArrayList<InventoryLoadException.LineError>();
+
+		for(InventoryDelta.Change change : delta.getChanges()) {
+			String code = change.getCode();
+			Slot oldSlot = newByCode.get(code);
+			Tool oldTool = oldSlot == null ? null : oldSlot.tool;
+			Tool newTool = change.getTool();
+
+			if(change.getOperation() == InventoryDelta.ADD && oldTool != null) {
+				lineErrors.add(new InventoryLoadException.LineError(change.getLineNumber(),
+						AppErrorMessage.DUPLICATE_TOOL_CODE + code));
+				continue;
+			}
+			if(change.getOperation() != InventoryDelta.ADD && oldTool == null) {
+				lineErrors.add(new InventoryLoadException.LineError(change.getLineNumber(),
+						AppErrorMessage.UNKNOWN_TOOL_CODE + code));
+				continue;
+			}
+
+			newByType = change(newByType, code, oldTool == null ? null : oldTool.getType().getToolTtype(),
+					newTool == null ? null : newTool.getType().getToolTtype(), newTool, order);
+			newByBrand = change(newByBrand, code, oldTool == null ? null : oldTool.getBrand(),
+					newTool == null ? null : newTool.getBrand(), newTool, order);
+			if(newTool == null) {
+				newByCode = newByCode.remove(code);
+			} else {
+				//An updated tool keeps the place of the tool it replaces.
+				newByCode = newByCode.put(code, new Slot(newTool, oldSlot == null ? order : oldSlot.order));
+			}
+			order++;
+		}
+
+		if(!lineErrors.isEmpty()) {
+			throw new InventoryLoadException(delta.getName(), lineErrors);
+		}
+		InventoryIndex changed = new InventoryIndex(newByCode, newByType, newByBrand, order, version + 1);
+		//The types and brands the delta did not touch have the same tools, so they keep their lists.
+		keepLists(typeLists, toolsByType, changed.typeLists, newByType);
+		keepLists(brandLists, toolsByBrand, changed.brandLists, newByBrand);
+		return changed;
+	}
+
+	/**
+	 * Gives the tool with a tool code.
+	 * @param code tool code, in any case.
+	 * @return the tool, or null if there is no tool with this code in the inventory.
+	 */
+	public Tool getTool(String code) {
+		Slot slot = toolsByCode.get(code.toUpperCase());
+		return slot == null ? null : slot.tool;
+	}
+
+	/**
+	 * Tests if there is a tool with a tool code in the inventory.
+	 * @param code tool code, in any case.
+	 * @return
+	 */
+	public boolean containsTool(String code) {
+		return getTool(code) != null;
+	}
+
+	/**
+	 * Gives the tools of a tool type.
+	 * @param toolType name of the tool type, in any case.
+	 * @return the tools, or an empty list if there is none.
+	 */
+	public List<Tool> getToolsByType(String toolType) {
+		return lookup(typeLists, toolsByType, toolType);
+	}
+
+	/**
+	 * Gives the tools of a brand.
+	 * @param brand brand, in any case.
+	 * @return the tools, or an empty list if there is none.
+	 */
+	public List<Tool> getToolsByBrand(String brand) {
+		return lookup(brandLists, toolsByBrand, brand);
+	}
+
+	/**
+	 * Gives the number of tools of a tool type, without building the list of the tools.
+	 * @param toolType name of the tool type, in any case.
+	 * @return
+	 */
+	public int getToolCountByType(String toolType) {
+		PersistentMap<String, Slot> typeTools = toolsByType.get(toolType.toUpperCase());
+		return typeTools == null ? 0 : typeTools.size();
+	}
+
+	/**
+	 * Gives all the tools, in the order they were given to the index. <br/>
+	 * Updated tools take the place of the tools they replace, and added tools come last, in the order they were added.
+	 * @return
+	 */
+	public List<Tool> getTools() {
+		List<Tool> result = tools;
+		if(result == null) {
+			result = toList(toolsByCode);
+			tools = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Gives the version number of the inventory. Each reload of the inventory, or delta applied, gives a higher number.
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int size() {
+		return toolsByCode.size();
+	}
+
+	private static void addTo(Map<String, PersistentMap.Builder<String, Slot>> index, Map<String, List<Tool>> lists,
+			String key, Slot slot) {
+		String upperCaseKey = key.toUpperCase();
+		PersistentMap.Builder<String, Slot> builder = index.get(upperCaseKey);
+		if(builder == null) {
+			builder = new PersistentMap.Builder<String, Slot>();
+			index.put(upperCaseKey, builder);
+			lists.put(upperCaseKey, new ArrayList<Tool>());
+		}
+		builder.put(slot.tool.getCode(), slot);
+		lists.get(upperCaseKey).add(slot.tool);
+	}
+
+	private static PersistentMap<String, PersistentMap<String, Slot>> build(Map<String, PersistentMap.Builder<String, Slot>> index) {
+		PersistentMap.Builder<String, PersistentMap<String, Slot>> builder = new PersistentMap.Builder<String, PersistentMap<String, Slot>>();
+		for(Map.Entry<String, PersistentMap.Builder<String, Slot>> entry : index.entrySet()) {
+			builder.put(entry.getKey(), entry.getValue().build());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Moves a tool in the type or brand index, copying only the paths to the keys changed.
+	 * @param oldKey type or brand of the old tool, null if the tool is added.
+	 * @param newKey type or brand of the new tool, null if the tool is removed.
+	 * @param order order of the tool if it is new in its type or brand.
+	 */
+	private static PersistentMap<String, PersistentMap<String, Slot>> change(PersistentMap<String, PersistentMap<String, Slot>> index,
+			String code, String oldKey, String newKey, Tool newTool, long order) {
+		String upperCaseOldKey = oldKey == null ? null : oldKey.toUpperCase();
+		String upperCaseNewKey = newKey == null ? null : newKey.toUpperCase();
+		if(upperCaseOldKey != null && upperCaseOldKey.equals(upperCaseNewKey)) {
+			//Same type or brand, the new tool takes the place of the old one.
+			PersistentMap<String, Slot> keyTools = index.get(upperCaseOldKey);
+			return index.put(upperCaseOldKey, keyTools.put(code, new Slot(newTool, keyTools.get(code).order)));
+		}
+		if(upperCaseOldKey != null) {
+			PersistentMap<String, Slot> keyTools = index.get(upperCaseOldKey).remove(code);
+			index = keyTools.size() == 0 ? index.remove(upperCaseOldKey) : index.put(upperCaseOldKey, keyTools);
+		}
+		if(upperCaseNewKey != null) {
+			PersistentMap<String, Slot> keyTools = index.get(upperCaseNewKey);
+			if(keyTools == null) {
+				keyTools = PersistentMap.empty();
+			}
+			index = index.put(upperCaseNewKey, keyTools.put(code, new Slot(newTool, order)));
+		}
+		return index;
+	}
+
+	/**
+	 * Copies the lists already built to a new version, for the keys whose tools are the very same map in both versions.
+	 */
+	private static void keepLists(ConcurrentHashMap<String, List<Tool>> lists, PersistentMap<String, PersistentMap<String, Slot>> index,
+			ConcurrentHashMap<String, List<Tool>> newLists, PersistentMap<String, PersistentMap<String, Slot>> newIndex) {
+		for(Map.Entry<String, List<Tool>> entry : lists.entrySet()) {
+			if(newIndex.get(entry.getKey()) == index.get(entry.getKey())) {
+				newLists.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static List<Tool> lookup(ConcurrentHashMap<String, List<Tool>> lists,
+			PersistentMap<String, PersistentMap<String, Slot>> index, String key) {
+		String upperCaseKey = key.toUpperCase();
+		List<Tool> list = lists.get(upperCaseKey);
+		if(list == null) {
+			PersistentMap<String, Slot> keyTools = index.get(upperCaseKey);
+			if(keyTools == null) {
+				return Collections.<Tool>emptyList();
+			}
+			list = toList(keyTools);
+			lists.putIfAbsent(upperCaseKey, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Lists the tools of a map in their order.
+	 */
+	private static List<Tool> toList(PersistentMap<String, Slot> map) {
+		List<Slot> slots = new ArrayList<Slot>(map.size());
+		map.addValuesTo(slots);
+		Collections.sort(slots, BY_ORDER);
+		List<Tool> list = new ArrayList<Tool>(slots.size());
+		for(Slot slot : slots) {
+			list.add(slot.tool);
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Tool, with its place in the lists of tools.
+	 */
+	private static final class Slot {
+		final Tool tool;
+		final long order;
+
+		Slot(Tool tool, long order) {
+			this.tool = tool;
+			this.order = order;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package toolrental;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exception for an inventory file with one or more invalid tool specs. <br/>
+ * It collects the errors of all the lines, each one with its line number in the file.
+ * @author Binod
+ *
+ */
+public class InventoryLoadException extends ToolRentalException {
+
+	//Number of line errors given in the message. All of them are available from getLineErrors().
+	private static final int MAX_ERRORS_IN_MESSAGE = 100;
+
+	private final List<LineError> lineErrors;
+
+	public InventoryLoadException(String fileName, List<LineError> lineErrors) {
+		super(buildMessage(fileName, lineErrors));
+		this.lineErrors = Collections.unmodifiableList(new ArrayList<LineError>(lineErrors));
+	}
+
+	/**
+	 * Gives the errors, in the order of the lines in the file.
+	 * @return
+	 */
+	public List<LineError> getLineErrors() {
+		return lineErrors;
+	}
+
+	private static String buildMessage(String fileName, List<LineError> lineErrors) {
+		StringBuilder message = new StringBuilder(AppErrorMessage.INVALID_INVENTORY_FILE);
+		message.append(fileName).append(": ").append(lineErrors.size()).append(" invalid line(s)");
+		for(int i = 0; i < lineErrors.size() && i < MAX_ERRORS_IN_MESSAGE; i++) {
+			LineError lineError = lineErrors.get(i);
+			message.append(System.lineSeparator()).append("Line ").append(lineError.getLineNumber())
+				.append(": ").append(lineError.getMessage());
+		}
+		if(lineErrors.size() > MAX_ERRORS_IN_MESSAGE) {
+			message.append(System.lineSeparator()).append("... and ")
+				.append(lineErrors.size() - MAX_ERRORS_IN_MESSAGE).append(" more");
+		}
+		return message.toString();
+	}
+
+	/**
+	 * Error of one line of the inventory file.
+	 */
+	public static final class LineError {
+		private final long lineNumber;
+		private final String message;
+
+		public LineError(long lineNumber, String message) {
+			this.lineNumber = lineNumber;
+			this.message = message;
+		}
+
+		/**
+		 * Gives the line number in the file, starting from 1.
+		 * @return
+		 */
+		public long getLineNumber() {
+			return lineNumber;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+	}
+}
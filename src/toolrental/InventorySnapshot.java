@@ -0,0 +1,280 @@
+package toolrental;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of a loaded inventory, to start without parsing the inventory file again. <br/>
+ * <br/>
+ * Format, all numbers big-endian: <br/>
+ * - header: magic "TRIS", format version, size and last modified time of the inventory file it was made from,
+ * and the number of strings, rate cards and tools. <br/>
+ * - string table: every distinct tool type name, brand and tool code, as a length and UTF-8 bytes. <br/>
+ * - rate cards: index of the tool type name, and each of the three rents as an unscaled long and a scale,
+ * so that the rents are read back exactly, with their scale. <br/>
+ * - tools: index of the rate card, of the brand and of the tool code. <br/>
+ * - CRC32 of everything before it. <br/>
+ * <br/>
+ * The snapshot is read through memory mapping. A snapshot is only used for the exact inventory file it was made from,
+ * so a changed inventory file is always parsed again.
+ * @author Binod
+ *
+ */
+public class InventorySnapshot {
+
+	//"TRIS", for Tool Rental Inventory Snapshot.
+	public static final int MAGIC = 0x54524953;
+	//Increase when the format changes. Snapshots of other versions are ignored.
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+	private static final int CHECKSUM_SIZE = 8;
+
+	//Size of the parts of the file mapped at a time, so that snapshots larger than 2 GB can be read.
+	private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+
+	/**
+	 * Writes the snapshot of an inventory. <br/>
+	 * The snapshot is written to a temporary file first, and then moved in place, so readers never see a partial snapshot.
+	 * @param file
+	 * @param tools
+	 * @param sourceSize size of the inventory file the tools were loaded from.
+	 * @param sourceLastModified last modified time of the inventory file, in milliseconds.
+	 * @throws IOException if the snapshot can't be written, or if a rent does not fit in a long.
+	 */
+	public static void write(Path file, List<Tool> tools, long sourceSize, long sourceLastModified) throws IOException {
+		//Number the distinct strings and rate cards.
+		Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		Map<List<Object>, Integer> rateCardIndexes = new HashMap<List<Object>, Integer>();
+		List<ToolType> rateCards = new ArrayList<ToolType>();
+		int[] toolRecords = new int[tools.size() * 3];
+		for(int i = 0; i < tools.size(); i++) {
+			Tool tool = tools.get(i);
+			ToolType type = tool.getType();
+			//BigDecimal.equals() compares the scale too, so rents written differently stay different.
+			List<Object> rateCard = Arrays.<Object>asList(type.getToolTtype(),
+					type.getWeekdayRent(), type.getWeekendRent(), type.getHolidayRent());
+			Integer rateCardIndex = rateCardIndexes.get(rateCard);
+			if(rateCardIndex == null) {
+				rateCardIndex = rateCards.size();
+				rateCardIndexes.put(rateCard, rateCardIndex);
+				rateCards.add(type);
+				indexOf(type.getToolTtype(), stringIndexes, strings);
+			}
+			toolRecords[i * 3] = rateCardIndex;
+			toolRecords[i * 3 + 1] = indexOf(tool.getBrand(), stringIndexes, strings);
+			toolRecords[i * 3 + 2] = indexOf(tool.getCode(), stringIndexes, strings);
+		}
+
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tempFile)) {
+			CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(checked, 64 * 1024));
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeLong(sourceSize);
+			data.writeLong(sourceLastModified);
+			data.writeInt(strings.size());
+			data.writeInt(rateCards.size());
+			data.writeInt(tools.size());
+
+			for(String string : strings) {
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				data.writeInt(bytes.length);
+				data.write(bytes);
+			}
+			for(ToolType type : rateCards) {
+				data.writeInt(stringIndexes.get(type.getToolTtype()));
+				writeRent(data, type.getWeekdayRent());
+				writeRent(data, type.getWeekendRent());
+				writeRent(data, type.getHolidayRent());
+			}
+			for(int record : toolRecords) {
+				data.writeInt(record);
+			}
+
+			data.flush();
+			data.writeLong(checked.getChecksum().getValue());
+			data.flush();
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tempFile);
+			throw e;
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads the snapshot of an inventory.
+	 * @param file
+	 * @param sourceSize size of the current inventory file.
+	 * @param sourceLastModified last modified time of the current inventory file, in milliseconds.
+	 * @param registry registry of shared tool types and strings, or null to create new ones for every tool.
+	 * @return the tools, in the order they were written, or null if the snapshot was made from another inventory file
+	 * or with another format version.
+	 * @throws IOException if the snapshot can't be read or is corrupted.
+	 */
+	public static List<Tool> read(Path file, long sourceSize, long sourceLastModified, ToolTypeRegistry registry)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size < HEADER_SIZE + CHECKSUM_SIZE) {
+				throw new IOException("Inventory snapshot is truncated: " + file);
+			}
+			MappedInput input = new MappedInput(channel, size - CHECKSUM_SIZE);
+			if(input.getInt() != MAGIC) {
+				throw new IOException("Not an inventory snapshot: " + file);
+			}
+			if(input.getInt() != VERSION || input.getLong() != sourceSize || input.getLong() != sourceLastModified) {
+				return null;
+			}
+			long checksum = channel.map(FileChannel.MapMode.READ_ONLY, size - CHECKSUM_SIZE, CHECKSUM_SIZE).getLong();
+			if(checksum(channel, size - CHECKSUM_SIZE) != checksum) {
+				throw new IOException("Inventory snapshot is corrupted: " + file);
+			}
+
+			int stringCount = input.getInt();
+			int rateCardCount = input.getInt();
+			int toolCount = input.getInt();
+
+			String[] strings = new String[stringCount];
+			for(int i = 0; i < stringCount; i++) {
+				int length = input.getInt();
+				if(length < 0 || length > WINDOW_SIZE) {
+					throw new IOException("Inventory snapshot is corrupted: " + file);
+				}
+				byte[] bytes = new byte[length];
+				input.get(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			//Tool type names and brands are shared with the registry, but not tool codes, as each one is used only once.
+			boolean[] shared = new boolean[stringCount];
+
+			ToolType[] rateCards = new ToolType[rateCardCount];
+			for(int i = 0; i < rateCardCount; i++) {
+				String name = sharedString(strings, shared, input.getInt(), registry);
+				long weekdayRent = input.getLong();
+				int weekdayScale = input.getInt();
+				long weekendRent = input.getLong();
+				int weekendScale = input.getInt();
+				long holidayRent = input.getLong();
+				int holidayScale = input.getInt();
+				if(registry == null) {
+					rateCards[i] = new ToolType(name, BigDecimal.valueOf(weekdayRent, weekdayScale),
+							BigDecimal.valueOf(weekendRent, weekendScale), BigDecimal.valueOf(holidayRent, holidayScale));
+				} else {
+					rateCards[i] = registry.getToolType(name, weekdayRent, weekdayScale, weekendRent, weekendScale,
+							holidayRent, holidayScale);
+				}
+			}
+
+			List<Tool> tools = new ArrayList<Tool>(toolCount);
+			for(int i = 0; i < toolCount; i++) {
+				ToolType type = rateCards[input.getInt()];
+				String brand = sharedString(strings, shared, input.getInt(), registry);
+				String code = strings[input.getInt()];
+				tools.add(new Tool(type, brand, code));
+			}
+			return tools;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Inventory snapshot is corrupted: " + file, e);
+		}
+	}
+
+	private static String sharedString(String[] strings, boolean[] shared, int index, ToolTypeRegistry registry) {
+		if(registry != null && !shared[index]) {
+			strings[index] = registry.intern(strings[index]);
+			shared[index] = true;
+		}
+		return strings[index];
+	}
+
+	private static int indexOf(String string, Map<String, Integer> stringIndexes, List<String> strings) {
+		Integer index = stringIndexes.get(string);
+		if(index == null) {
+			index = strings.size();
+			stringIndexes.put(string, index);
+			strings.add(string);
+		}
+		return index;
+	}
+
+	private static void writeRent(DataOutputStream data, BigDecimal rent) throws IOException {
+		if(rent.unscaledValue().bitLength() > 63) {
+			throw new IOException("Rent is too large for an inventory snapshot: " + rent);
+		}
+		data.writeLong(rent.unscaledValue().longValue());
+		data.writeInt(rent.scale());
+	}
+
+	private static long checksum(FileChannel channel, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		for(long position = 0; position < length; position += WINDOW_SIZE) {
+			crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, length - position)));
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Sequential reader of a file, mapping it one window at a time.
+	 */
+	private static final class MappedInput {
+		private final FileChannel channel;
+		private final long length;
+		private MappedByteBuffer window;
+		private long windowStart = 0;
+
+		MappedInput(FileChannel channel, long length) throws IOException {
+			this.channel = channel;
+			this.length = length;
+			this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, length));
+		}
+
+		int getInt() throws IOException {
+			ensure(4);
+			return window.getInt();
+		}
+
+		long getLong() throws IOException {
+			ensure(8);
+			return window.getLong();
+		}
+
+		void get(byte[] bytes) throws IOException {
+			ensure(bytes.length);
+			window.get(bytes);
+		}
+
+		/**
+		 * Maps the next window if the current one has less than a number of bytes left.
+		 */
+		private void ensure(int count) throws IOException {
+			if(window.remaining() >= count) {
+				return;
+			}
+			windowStart += window.position();
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_SIZE, length - windowStart));
+			if(window.remaining() < count) {
+				throw new EOFException("Inventory snapshot is truncated");
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package toolrental;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches an inventory file, and reloads the inventory in a background thread when the file changes. <br/>
+ * Files are often written in several steps, so the reload waits until the file has not changed for a quiet period.
+ * Readers are never blocked: the reload builds a new inventory and only then publishes it.
+ * @author Binod
+ *
+ */
+public class InventoryWatcher {
+
+	public static final long DEFAULT_QUIET_PERIOD_MILLIS = 500;
+
+	private final Path file;
+	private final Runnable reload;
+	private final long quietPeriodMillis;
+	private final WatchService watchService;
+	private final Thread watcherThread;
+
+	public InventoryWatcher(Path file, Runnable reload) throws IOException {
+		this(file, reload, DEFAULT_QUIET_PERIOD_MILLIS);
+	}
+
+	/**
+	 *
+	 * @param file inventory file to watch.
+	 * @param reload reloads the inventory. It runs in the watcher thread, and should handle its own errors.
+	 * @param quietPeriodMillis time without changes to wait for before reloading.
+	 * @throws IOException if the directory of the file can't be watched.
+	 */
+	public InventoryWatcher(Path file, Runnable reload, long quietPeriodMillis) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.reload = reload;
+		this.quietPeriodMillis = quietPeriodMillis;
+
+		//Only directories can be watched, so watch the directory of the file for the file being written or replaced.
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.file.getParent().register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+		this.watcherThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "inventory-watcher");
+		this.watcherThread.setDaemon(true);
+		this.watcherThread.start();
+	}
+
+	/**
+	 * Stops watching the file. A reload in progress is finished first.
+	 */
+	public void close() throws IOException, InterruptedException {
+		watcherThread.interrupt();
+		watchService.close();
+		watcherThread.join();
+	}
+
+	/**
+	 * Runs in the watcher thread until it is closed.
+	 */
+	private void watch() {
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				if(!isFileChanged(watchService.take())) {
+					continue;
+				}
+				//Wait for the writing to be over.
+				WatchKey key;
+				while((key = watchService.poll(quietPeriodMillis, TimeUnit.MILLISECONDS)) != null) {
+					isFileChanged(key);
+				}
+				reload.run();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			//Closed.
+		}
+	}
+
+	/**
+	 * Tells if the events of a key are about the watched file, and makes the key ready for the next events.
+	 */
+	private boolean isFileChanged(WatchKey key) {
+		boolean changed = false;
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+}
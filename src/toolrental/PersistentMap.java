@@ -0,0 +1,364 @@
+package toolrental;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable hash map whose versions share their unchanged parts. <br/>
+ * The map is a trie of nodes of up to 32 slots, indexed by 5 bits of the hash of the key at each level.
+ * Putting or removing a key copies only the nodes on the path to the key, about log32(size) nodes, and the
+ * new map shares all the other nodes with the map it was made from. Both maps stay valid and unchanged. <br/>
+ * A {@link Builder} fills a new map in place, without copying the path on each put. <br/>
+ * Keys and values can't be null.
+ * @author Binod
+ *
+ */
+final class PersistentMap<K, V> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<Object, Object>(null, 0);
+
+	private final Node root;
+	private final int size;
+
+	private PersistentMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentMap<K, V> empty() {
+		return (PersistentMap<K, V>) EMPTY;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gives the value of a key.
+	 * @param key
+	 * @return the value, or null if the key is not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	V get(Object key) {
+		int hash = key.hashCode();
+		Node node = root;
+		for(int shift = 0; node != null; shift += BITS) {
+			int bit = bit(hash, shift);
+			if((node.bitmap & bit) == 0) {
+				return null;
+			}
+			int index = node.index(bit);
+			Object slotKey = node.array[2 * index];
+			Object slotValue = node.array[2 * index + 1];
+			if(slotKey != null) {
+				return key.equals(slotKey) ? (V) slotValue : null;
+			}
+			if(slotValue instanceof Collision) {
+				return (V) ((Collision) slotValue).find(key);
+			}
+			node = (Node) slotValue;
+		}
+		return null;
+	}
+
+	/**
+	 * Gives a map with a key set to a value. This map is not changed.
+	 * @param key
+	 * @param value
+	 * @return the new map, or this map if the key already has this very value.
+	 */
+	PersistentMap<K, V> put(K key, V value) {
+		int[] sizeChange = new int[1];
+		Node newRoot = put(root, 0, key.hashCode(), key, value, null, sizeChange);
+		return newRoot == root ? this : new PersistentMap<K, V>(newRoot, size + sizeChange[0]);
+	}
+
+	/**
+	 * Gives a map without a key. This map is not changed.
+	 * @param key
+	 * @return the new map, or this map if the key is not in it.
+	 */
+	PersistentMap<K, V> remove(Object key) {
+		if(root == null) {
+			return this;
+		}
+		int[] sizeChange = new int[1];
+		Node newRoot = remove(root, 0, key.hashCode(), key, null, sizeChange);
+		return newRoot == root ? this : new PersistentMap<K, V>(newRoot, size + sizeChange[0]);
+	}
+
+	/**
+	 * Adds all the values of the map to a collection, in no particular order.
+	 * @param values
+	 */
+	@SuppressWarnings("unchecked")
+	void addValuesTo(Collection<? super V> values) {
+		if(root != null) {
+			addValues(root, (Collection<Object>) values);
+		}
+	}
+
+	/**
+	 * Fills a new map. Its nodes are changed in place until the map is built.
+	 */
+	static final class Builder<K, V> {
+		//Marks the nodes created by this builder, which it can change in place.
+		private Object edit = new Object();
+		private Node root;
+		private int size;
+
+		void put(K key, V value) {
+			int[] sizeChange = new int[1];
+			root = PersistentMap.put(root, 0, key.hashCode(), key, value, edit, sizeChange);
+			size += sizeChange[0];
+		}
+
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Gives the map. Later puts copy the nodes they change, so the map is never changed.
+		 * @return
+		 */
+		PersistentMap<K, V> build() {
+			edit = new Object();
+			return root == null ? PersistentMap.<K, V>empty() : new PersistentMap<K, V>(root, size);
+		}
+	}
+
+	private static Node put(Node node, int shift, int hash, Object key, Object value, Object edit, int[] sizeChange) {
+		int bit = bit(hash, shift);
+		if(node == null) {
+			sizeChange[0] = 1;
+			return new Node(edit, bit, new Object[] {key, value});
+		}
+		int index = node.index(bit);
+		if((node.bitmap & bit) == 0) {
+			sizeChange[0] = 1;
+			return node.insert(edit, bit, index, key, value);
+		}
+		Object slotKey = node.array[2 * index];
+		Object slotValue = node.array[2 * index + 1];
+		if(slotKey != null) {
+			if(key.equals(slotKey)) {
+				return slotValue == value ? node : node.set(edit, index, slotKey, value);
+			}
+			//Two keys in the same slot, move them one level down, or to a collision if they have the same hash.
+			int slotHash = slotKey.hashCode();
+			Object child;
+			if(slotHash == hash) {
+				sizeChange[0] = 1;
+				child = new Collision(hash, new Object[] {slotKey, slotValue, key, value});
+			} else {
+				//The hashes differ in a later group of bits.
+				Node split = new Node(edit, bit(slotHash, shift + BITS), new Object[] {slotKey, slotValue});
+				child = put(split, shift + BITS, hash, key, value, edit, sizeChange);
+			}
+			return node.set(edit, index, null, child);
+		}
+		Object child;
+		if(slotValue instanceof Node) {
+			child = put((Node) slotValue, shift + BITS, hash, key, value, edit, sizeChange);
+		} else {
+			Collision collision = (Collision) slotValue;
+			if(collision.hash == hash) {
+				child = collision.put(key, value, sizeChange);
+			} else {
+				Node split = new Node(edit, bit(collision.hash, shift + BITS), new Object[] {null, collision});
+				child = put(split, shift + BITS, hash, key, value, edit, sizeChange);
+			}
+		}
+		return child == slotValue ? node : node.set(edit, index, null, child);
+	}
+
+	private static Node remove(Node node, int shift, int hash, Object key, Object edit, int[] sizeChange) {
+		int bit = bit(hash, shift);
+		if((node.bitmap & bit) == 0) {
+			return node;
+		}
+		int index = node.index(bit);
+		Object slotKey = node.array[2 * index];
+		Object slotValue = node.array[2 * index + 1];
+		if(slotKey != null) {
+			if(!key.equals(slotKey)) {
+				return node;
+			}
+			sizeChange[0] = -1;
+			return node.delete(edit, bit, index);
+		}
+		if(slotValue instanceof Node) {
+			Node child = remove((Node) slotValue, shift + BITS, hash, key, edit, sizeChange);
+			if(child == slotValue) {
+				return node;
+			}
+			return child == null ? node.delete(edit, bit, index) : node.set(edit, index, null, child);
+		}
+		Collision collision = (Collision) slotValue;
+		if(collision.hash != hash) {
+			return node;
+		}
+		Collision child = collision.remove(key, sizeChange);
+		if(child == collision) {
+			return node;
+		}
+		//A single key left is kept in the slot itself.
+		return child.array.length == 2 ? node.set(edit, index, child.array[0], child.array[1]) : node.set(edit, index, null, child);
+	}
+
+	private static void addValues(Node node, Collection<Object> values) {
+		int count = Integer.bitCount(node.bitmap);
+		for(int i = 0; i < count; i++) {
+			Object slotValue = node.array[2 * i + 1];
+			if(node.array[2 * i] != null) {
+				values.add(slotValue);
+			} else if(slotValue instanceof Node) {
+				addValues((Node) slotValue, values);
+			} else {
+				Object[] pairs = ((Collision) slotValue).array;
+				for(int j = 1; j < pairs.length; j += 2) {
+					values.add(pairs[j]);
+				}
+			}
+		}
+	}
+
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	/**
+	 * Node of the trie. Each slot, in the order of its bit in the bitmap, is a key and its value,
+	 * or null and a node one level down, or null and a collision. <br/>
+	 * Only changed in place by the builder that created it, which can leave room for more slots at the end of the array.
+	 */
+	private static final class Node {
+		final Object edit;
+		int bitmap;
+		Object[] array;
+
+		Node(Object edit, int bitmap, Object[] array) {
+			this.edit = edit;
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		Node set(Object edit, int index, Object key, Object value) {
+			if(edit != null && this.edit == edit) {
+				array[2 * index] = key;
+				array[2 * index + 1] = value;
+				return this;
+			}
+			Object[] newArray = Arrays.copyOf(array, 2 * Integer.bitCount(bitmap));
+			newArray[2 * index] = key;
+			newArray[2 * index + 1] = value;
+			return new Node(edit, bitmap, newArray);
+		}
+
+		Node insert(Object edit, int bit, int index, Object key, Object value) {
+			int count = Integer.bitCount(bitmap);
+			if(edit != null && this.edit == edit) {
+				if(2 * count == array.length) {
+					//Room for more slots, as a builder usually fills the node.
+					array = Arrays.copyOf(array, 2 * Math.min(1 << BITS, Math.max(4, count * 2)));
+				}
+				System.arraycopy(array, 2 * index, array, 2 * index + 2, 2 * (count - index));
+				array[2 * index] = key;
+				array[2 * index + 1] = value;
+				bitmap |= bit;
+				return this;
+			}
+			Object[] newArray = new Object[2 * (count + 1)];
+			System.arraycopy(array, 0, newArray, 0, 2 * index);
+			newArray[2 * index] = key;
+			newArray[2 * index + 1] = value;
+			System.arraycopy(array, 2 * index, newArray, 2 * index + 2, 2 * (count - index));
+			return new Node(edit, bitmap | bit, newArray);
+		}
+
+		/**
+		 * Removes a slot.
+		 * @return the node, or null if it has no slot left.
+		 */
+		Node delete(Object edit, int bit, int index) {
+			if(bitmap == bit) {
+				return null;
+			}
+			int count = Integer.bitCount(bitmap);
+			Object[] newArray = new Object[2 * (count - 1)];
+			System.arraycopy(array, 0, newArray, 0, 2 * index);
+			System.arraycopy(array, 2 * index + 2, newArray, 2 * index, 2 * (count - index - 1));
+			if(edit != null && this.edit == edit) {
+				bitmap &= ~bit;
+				array = newArray;
+				return this;
+			}
+			return new Node(edit, bitmap & ~bit, newArray);
+		}
+	}
+
+	/**
+	 * Keys with the same hash, and their values. Never changed, as collisions are rare.
+	 */
+	private static final class Collision {
+		final int hash;
+		//Keys and values.
+		final Object[] array;
+
+		Collision(int hash, Object[] array) {
+			this.hash = hash;
+			this.array = array;
+		}
+
+		Object find(Object key) {
+			for(int i = 0; i < array.length; i += 2) {
+				if(key.equals(array[i])) {
+					return array[i + 1];
+				}
+			}
+			return null;
+		}
+
+		Collision put(Object key, Object value, int[] sizeChange) {
+			for(int i = 0; i < array.length; i += 2) {
+				if(key.equals(array[i])) {
+					if(array[i + 1] == value) {
+						return this;
+					}
+					Object[] newArray = array.clone();
+					newArray[i + 1] = value;
+					return new Collision(hash, newArray);
+				}
+			}
+			sizeChange[0] = 1;
+			Object[] newArray = Arrays.copyOf(array, array.length + 2);
+			newArray[array.length] = key;
+			newArray[array.length + 1] = value;
+			return new Collision(hash, newArray);
+		}
+
+		/**
+		 * @return the collision without the key, or this collision if the key is not in it.
+		 */
+		Collision remove(Object key, int[] sizeChange) {
+			for(int i = 0; i < array.length; i += 2) {
+				if(key.equals(array[i])) {
+					sizeChange[0] = -1;
+					Object[] newArray = new Object[array.length - 2];
+					System.arraycopy(array, 0, newArray, 0, i);
+					System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+					return new Collision(hash, newArray);
+				}
+			}
+			return this;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package toolrental;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of rent calculation results, for quotes that are asked for over and over. <br/>
+ * A quote is identified by the daily rents of the tool type, the checkout date, the rental day count,
+ * the discount percent and the holiday calendar. The tool itself does not matter, so all the tools with the
+ * same rents share the cached results. <br/>
+ * <br/>
+ * The cache is split into stripes, each one a small LRU map with its own lock, so that threads looking up
+ * different quotes rarely wait for each other. When a stripe is full, its least recently used quote is evicted.
+ * @author Binod
+ *
+ */
+public class QuoteCache {
+
+	public static final int DEFAULT_STRIPE_COUNT = 16;
+
+	private final Stripe[] stripes;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	public QuoteCache(int maxSize) {
+		this(maxSize, DEFAULT_STRIPE_COUNT);
+	}
+
+	/**
+	 *
+	 * @param maxSize maximum number of cached quotes.
+	 * @param stripeCount number of independently locked parts of the cache.
+	 */
+	public QuoteCache(int maxSize, int stripeCount) {
+		if(maxSize < 1 || stripeCount < 1) {
+			throw new IllegalArgumentException("Cache size and stripe count should be 1 or more.");
+		}
+		stripeCount = Math.min(stripeCount, maxSize);
+		stripes = new Stripe[stripeCount];
+		for(int i = 0; i < stripeCount; i++) {
+			//Spread the size over the stripes, the first ones taking the remainder.
+			stripes[i] = new Stripe(maxSize / stripeCount + (i < maxSize % stripeCount ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Looks up a cached quote.
+	 * @return the cached result, or null if the quote is not in the cache.
+	 */
+	public QuoteResult get(ToolType toolType, LocalDate checkoutDate, int totalDayCount, int discountPercent,
+			HolidayCalendar calendar) {
+		QuoteKey key = new QuoteKey(toolType, checkoutDate, totalDayCount, discountPercent, calendar);
+		Stripe stripe = stripeFor(key);
+		QuoteResult result;
+		synchronized(stripe) {
+			result = stripe.get(key);
+		}
+		if(result == null) {
+			missCount.increment();
+		} else {
+			hitCount.increment();
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a quote to the cache, evicting the least recently used quote of its stripe if the stripe is full.
+	 */
+	public void put(ToolType toolType, LocalDate checkoutDate, int totalDayCount, int discountPercent,
+			HolidayCalendar calendar, QuoteResult result) {
+		QuoteKey key = new QuoteKey(toolType, checkoutDate, totalDayCount, discountPercent, calendar);
+		Stripe stripe = stripeFor(key);
+		synchronized(stripe) {
+			stripe.put(key, result);
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * Gives the number of quotes in the cache.
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe stripe : stripes) {
+			synchronized(stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	private Stripe stripeFor(QuoteKey key) {
+		//Mix the high bits in, as the low bits of the hash of similar quotes are often the same.
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes[(hash & 0x7FFFFFFF) % stripes.length];
+	}
+
+	/**
+	 * LRU map of one stripe. Accessed only while holding its lock.
+	 */
+	private class Stripe extends LinkedHashMap<QuoteKey, QuoteResult> {
+		private final int maxSize;
+
+		Stripe(int maxSize) {
+			//Access order, so that the eldest entry is the least recently used one.
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<QuoteKey, QuoteResult> eldest) {
+			if(size() > maxSize) {
+				evictionCount.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Everything the result of a quote depends on.
+	 */
+	private static final class QuoteKey {
+		//Rents as rate units, when the tool type has fixed-point rents.
+		private final long weekdayRentUnits, weekendRentUnits, holidayRentUnits;
+		//Rents without trailing zeros otherwise, null for fixed-point rents.
+		private final BigDecimal weekdayRent, weekendRent, holidayRent;
+		private final long checkoutDay;
+		private final int totalDayCount;
+		private final int discountPercent;
+		private final HolidayCalendar calendar;
+		private final int hash;
+
+		QuoteKey(ToolType toolType, LocalDate checkoutDate, int totalDayCount, int discountPercent, HolidayCalendar calendar) {
+			if(toolType.hasFixedPointRents()) {
+				this.weekdayRentUnits = toolType.getWeekdayRentUnits();
+				this.weekendRentUnits = toolType.getWeekendRentUnits();
+				this.holidayRentUnits = toolType.getHolidayRentUnits();
+				this.weekdayRent = null;
+				this.weekendRent = null;
+				this.holidayRent = null;
+			} else {
+				this.weekdayRentUnits = 0;
+				this.weekendRentUnits = 0;
+				this.holidayRentUnits = 0;
+				this.weekdayRent = toolType.getWeekdayRent().stripTrailingZeros();
+				this.weekendRent = toolType.getWeekendRent().stripTrailingZeros();
+				this.holidayRent = toolType.getHolidayRent().stripTrailingZeros();
+			}
+			this.checkoutDay = checkoutDate.toEpochDay();
+			this.totalDayCount = totalDayCount;
+			this.discountPercent = discountPercent;
+			this.calendar = calendar;
+
+			int result = Long.hashCode(weekdayRentUnits);
+			result = 31 * result + Long.hashCode(weekendRentUnits);
+			result = 31 * result + Long.hashCode(holidayRentUnits);
+			result = 31 * result + (weekdayRent == null ? 0 : weekdayRent.hashCode());
+			result = 31 * result + (weekendRent == null ? 0 : weekendRent.hashCode());
+			result = 31 * result + (holidayRent == null ? 0 : holidayRent.hashCode());
+			result = 31 * result + Long.hashCode(checkoutDay);
+			result = 31 * result + totalDayCount;
+			result = 31 * result + discountPercent;
+			result = 31 * result + System.identityHashCode(calendar);
+			this.hash = result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof QuoteKey))
+				return false;
+			QuoteKey other = (QuoteKey) obj;
+			return hash == other.hash
+					&& weekdayRentUnits == other.weekdayRentUnits
+					&& weekendRentUnits == other.weekendRentUnits
+					&& holidayRentUnits == other.holidayRentUnits
+					&& checkoutDay == other.checkoutDay
+					&& totalDayCount == other.totalDayCount
+					&& discountPercent == other.discountPercent
+					&& calendar == other.calendar
+					&& equalRents(weekdayRent, other.weekdayRent)
+					&& equalRents(weekendRent, other.weekendRent)
+					&& equalRents(holidayRent, other.holidayRent);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		private static boolean equalRents(BigDecimal rent, BigDecimal otherRent) {
+			return rent == null ? otherRent == null : rent.equals(otherRent);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package toolrental;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Rent calculation for one tool, as a pure function from the rental terms to an immutable {@link QuoteResult}. <br/>
+ * Nothing is changed by the calculation apart from the optional quote cache, so any number of threads
+ * can price at the same time without locking, and the results can be cached and shared.
+ * @author Binod
+ *
+ */
+public class QuotePricer {
+
+	/**
+	 * Calculates the rent using the day class index and quote cache of the application configuration.
+	 * @param toolType
+	 * @param checkoutDate
+	 * @param totalDayCount total number of days in the contract period.
+	 * @param discountPercent
+	 * @return
+	 * @throws ToolRentalException if the day count or discount percent is not valid.
+	 */
+	public static QuoteResult price(ToolType toolType, LocalDate checkoutDate, int totalDayCount, int discountPercent)
+			throws ToolRentalException {
+		ToolRentalAppConfig config = ToolRentalAppConfig.getInstance();
+		return price(toolType, checkoutDate, totalDayCount, discountPercent, config.getDayClassIndex(), config.getQuoteCache(), null);
+	}
+
+	/**
+	 * Calculates the rent.
+	 * @param toolType
+	 * @param checkoutDate
+	 * @param totalDayCount total number of days in the contract period.
+	 * @param discountPercent
+	 * @param dayClassIndex to count the weekdays, weekend days and holidays.
+	 * @param quoteCache cache of results, or null for no caching.
+	 * @param billableDays the counts of weekdays, weekend days and holidays if they are already known,
+	 * as given by {@link DayClassIndex#countBillableDays(LocalDate, LocalDate)}, or null to count them here.
+	 * @return
+	 * @throws ToolRentalException if the day count or discount percent is not valid.
+	 */
+	public static QuoteResult price(ToolType toolType, LocalDate checkoutDate, int totalDayCount, int discountPercent,
+			DayClassIndex dayClassIndex, QuoteCache quoteCache, int[] billableDays) throws ToolRentalException {
+
+		//Check if we have discount in the correct range.
+		if(discountPercent < 0 || discountPercent > 100) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_DISCOUNT_PERCENT);
+		}
+
+		//check if we have rental day number is in the correct range.
+		if(totalDayCount < 1) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_RENTAL_DAY_COUNT);
+		}
+
+		//Reuse the result of the same quote if it is cached.
+		HolidayCalendar calendar = dayClassIndex.getHolidayCalendar();
+		if(quoteCache != null) {
+			QuoteResult cached = quoteCache.get(toolType, checkoutDate, totalDayCount, discountPercent, calendar);
+			if(cached != null) {
+				return cached;
+			}
+		}
+
+		//Compute the number of weekdays, weekend days, and holidays.
+		LocalDate dueDate = checkoutDate.plusDays(totalDayCount);
+		if(billableDays == null) {
+			billableDays = dayClassIndex.countBillableDays(checkoutDate, dueDate);
+		}
+		int numWeekDays = billableDays[0];
+		int numWeekendDays = billableDays[1];
+		int numHolidays = billableDays[2];
+
+		//Use integer arithmetic on cents when the rents allow it, and BigDecimal otherwise.
+		//Both give exactly the same amounts.
+		BigDecimal[] amounts = null;
+		if(toolType.hasFixedPointRents()) {
+			amounts = calculateAmountsWithFixedPoint(toolType, numWeekDays, numWeekendDays, numHolidays, discountPercent);
+		}
+		if(amounts == null) {
+			amounts = calculateAmountsWithBigDecimal(toolType, numWeekDays, numWeekendDays, numHolidays, discountPercent);
+		}
+
+		//TAXES SKIPPED for this demo.
+
+		int daysCharged = numWeekDays //weekdays are ALWAYS charged
+				+ (toolType.isChargedWeekend() ? numWeekendDays : 0)
+				+ (toolType.isChargedHoliday() ? numHolidays : 0);
+
+		QuoteResult result = new QuoteResult(dueDate, numWeekDays, numWeekendDays, numHolidays, daysCharged,
+				amounts[0], amounts[1], amounts[2]);
+		if(quoteCache != null) {
+			quoteCache.put(toolType, checkoutDate, totalDayCount, discountPercent, calendar, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Calculates the gross, discount and net amounts with fixed-point integer arithmetic.
+	 * @return the three amounts in that order, or null if an amount is too large for a long.
+	 */
+	private static BigDecimal[] calculateAmountsWithFixedPoint(ToolType toolType,
+			int numWeekDays, int numWeekendDays, int numHolidays, int discountPercent) {
+		long grossCents, discountCents;
+		try {
+			grossCents = FixedPointPricing.grossRentCents(toolType, numWeekDays, numWeekendDays, numHolidays);
+			discountCents = FixedPointPricing.discountCents(grossCents, discountPercent);
+		} catch (ArithmeticException e) {
+			return null;
+		}
+
+		//Convert to BigDecimal only for the results.
+		return new BigDecimal[] {
+				FixedPointPricing.toCurrency(grossCents),
+				FixedPointPricing.toCurrency(discountCents),
+				FixedPointPricing.toCurrency(grossCents - discountCents) };
+	}
+
+	/**
+	 * Calculates the gross, discount and net amounts with BigDecimal.
+	 * @return the three amounts in that order.
+	 */
+	private static BigDecimal[] calculateAmountsWithBigDecimal(ToolType toolType,
+			int numWeekDays, int numWeekendDays, int numHolidays, int discountPercent) {
+		//Do all monetary calculations using BigDecimal class.
+
+		BigDecimal discountFraction = new BigDecimal(discountPercent).divide(new BigDecimal(100));
+
+		BigDecimal countWeekDays = new BigDecimal(numWeekDays);
+		BigDecimal countWeekendDays = new BigDecimal(numWeekendDays);
+		BigDecimal countHolidDays = new BigDecimal(numHolidays);
+
+		BigDecimal grossRentAmount = toolType.getWeekdayRent().multiply(countWeekDays)
+				.add(toolType.getWeekendRent().multiply(countWeekendDays))
+				.add(toolType.getHolidayRent().multiply(countHolidDays));
+		grossRentAmount = ToolRentalUtils.roundCurrencyWithHalfUp(grossRentAmount);
+
+		BigDecimal discountAmount = grossRentAmount.multiply(discountFraction);
+
+		discountAmount = ToolRentalUtils.roundCurrencyWithHalfUp(discountAmount);
+
+		BigDecimal netRentAmount = grossRentAmount.subtract(discountAmount);
+
+		return new BigDecimal[] { grossRentAmount, discountAmount, netRentAmount };
+	}
+}
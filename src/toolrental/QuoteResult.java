@@ -0,0 +1,82 @@
+package toolrental;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Result of the rent calculation for one tool: the day counts and the amounts. <br/>
+ * Instances are immutable, so one result can be shared by any number of threads, for example through a {@link QuoteCache}.
+ * @author Binod
+ *
+ */
+public final class QuoteResult {
+
+	private final LocalDate dueDate;
+	private final int numWeekDays;
+	private final int numWeekendDays;
+	private final int numHolidays;
+	private final int daysCharged;
+	private final BigDecimal grossRentAmount;
+	private final BigDecimal discountAmount;
+	private final BigDecimal netRentAmount;
+
+	public QuoteResult(LocalDate dueDate, int numWeekDays, int numWeekendDays, int numHolidays, int daysCharged,
+			BigDecimal grossRentAmount, BigDecimal discountAmount, BigDecimal netRentAmount) {
+		this.dueDate = dueDate;
+		this.numWeekDays = numWeekDays;
+		this.numWeekendDays = numWeekendDays;
+		this.numHolidays = numHolidays;
+		this.daysCharged = daysCharged;
+		this.grossRentAmount = grossRentAmount;
+		this.discountAmount = discountAmount;
+		this.netRentAmount = netRentAmount;
+	}
+
+	public LocalDate getDueDate() {
+		return dueDate;
+	}
+
+	public int getNumWeekDays() {
+		return numWeekDays;
+	}
+
+	public int getNumWeekendDays() {
+		return numWeekendDays;
+	}
+
+	public int getNumHolidays() {
+		return numHolidays;
+	}
+
+	/**
+	 * Gives the number of days actually charged.
+	 * @return
+	 */
+	public int getDaysCharged() {
+		return daysCharged;
+	}
+
+	/**
+	 * Gives the rent before discount, rounded to cents.
+	 * @return
+	 */
+	public BigDecimal getGrossRentAmount() {
+		return grossRentAmount;
+	}
+
+	/**
+	 * Gives the discount, rounded to cents.
+	 * @return
+	 */
+	public BigDecimal getDiscountAmount() {
+		return discountAmount;
+	}
+
+	/**
+	 * Gives the rent after discount, rounded to cents.
+	 * @return
+	 */
+	public BigDecimal getNetRentAmount() {
+		return netRentAmount;
+	}
+}
@@ -1,68 +1,176 @@
 package toolrental;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
- * Class to generate rental agreement at the point-of-sale.
+ * Class to generate rental agreement at the point-of-sale. <br/>
+ * The agreement is laid out by an {@link AgreementTemplate}, the one of the configuration or the built-in one.
+ * It is rendered one section at a time, the header, each tool and the footer, into a reusable buffer, and each
+ * section is written once to the output: a console, a file, a socket, or a StringBuilder. <br/>
+ * The buffers are reused from one agreement to the next, so an instance should be used by one thread at a time.
  * @author Binod
  *
  */
 public class RentalAgreement {
 
-	public void printRentalAgreement (List<CheckoutData> checkoutData, String customerInfo, String storeInfo, String dateFormat) {
-		
-		final String LINE_SEPARATOR = System.lineSeparator();
-		StringBuffer buff = new StringBuffer(storeInfo);
-		buff.append(LINE_SEPARATOR); 
-		buff.append(customerInfo);
-		buff.append(LINE_SEPARATOR); 
-		buff.append("Thank you for renting the tool(s) from our store. \nDetails are below:"); 
-		buff.append(LINE_SEPARATOR); 
-		
+	//Sections of an agreement rendered with a template, encoded in the charset of the template.
+	private final AgreementTemplate.Output output = new AgreementTemplate.Output();
+	//Characters of a section, decoded to write it to an Appendable.
+	private CharBuffer chars = CharBuffer.allocate(1024);
+	private CharsetDecoder decoder;
+
+	/**
+	 * Prints the rental agreement to the console with a template.
+	 * The text goes through the characters of System.out, so it is encoded in the charset of the console.
+	 * @param template
+	 * @param store
+	 * @param customer
+	 * @param checkoutData
+	 * @param dateCodec
+	 */
+	public void printRentalAgreement (AgreementTemplate template, StoreInfo store, CustomerInfo customer,
+			List<CheckoutData> checkoutData, DateCodec dateCodec) {
+		try {
+			appendRentalAgreement(template, store, customer, checkoutData, dateCodec, System.out);
+		} catch (IOException e) {
+			//Not possible, the console does not throw IOException.
+			throw new IllegalStateException(e);
+		}
+		System.out.flush();
+	}
+
+	/**
+	 * Writes the rental agreement to an OutputStream with a template, in the charset of the template.
+	 * The store and customer blocks are encoded once per template, and copied as they are.
+	 * @param template
+	 * @param store
+	 * @param customer
+	 * @param checkoutData
+	 * @param dateCodec
+	 * @param out the stream is not flushed nor closed.
+	 * @throws IOException if the stream can't be written.
+	 */
+	public void writeRentalAgreement (AgreementTemplate template, StoreInfo store, CustomerInfo customer,
+			List<CheckoutData> checkoutData, DateCodec dateCodec, OutputStream out) throws IOException {
+		output.reset();
+		template.writeHeader(store, customer, output);
+		output.writeTo(out);
+		int counter = 1;
+		for(CheckoutData data : checkoutData) {
+			//Each section is written once, and the whole agreement is kept in the buffer for archiving.
+			int sectionStart = output.size();
+			template.writeTool(data, counter++, dateCodec, output);
+			output.writeTo(out, sectionStart);
+		}
+		int footerStart = output.size();
+		template.writeFooter(store, customer, output);
+		output.writeTo(out, footerStart);
+	}
+
+	/**
+	 * Writes the rental agreement to an OutputStream with a template, and queues a copy of it to be archived.
+	 * @param template
+	 * @param store
+	 * @param customer
+	 * @param checkoutData
+	 * @param dateCodec
+	 * @param out the stream is not flushed nor closed.
+	 * @param archiver
+	 * @param checkoutId id the agreement is archived with.
+	 * @return a future completed once the copy is durably archived.
+	 * @throws IOException if the stream can't be written.
+	 * @throws InterruptedException if interrupted while waiting for the archiver to have space.
+	 */
+	public Future<Void> writeRentalAgreement (AgreementTemplate template, StoreInfo store, CustomerInfo customer,
+			List<CheckoutData> checkoutData, DateCodec dateCodec, OutputStream out, AgreementArchiver archiver,
+			String checkoutId) throws IOException, InterruptedException {
+		writeRentalAgreement(template, store, customer, checkoutData, dateCodec, out);
+		return archiver.archive(checkoutId, output.toByteArray());
+	}
+
+	/**
+	 * Appends the rental agreement to an Appendable, such as a Writer or a StringBuilder, with a template.
+	 * The sections are rendered in the charset of the template, as for a stream, and decoded back to characters.
+	 * @param template
+	 * @param store
+	 * @param customer
+	 * @param checkoutData
+	 * @param dateCodec
+	 * @param out a Writer is not flushed nor closed. A PrintStream, such as System.out, encodes the text in its own charset.
+	 * @throws IOException if the Appendable can't be written.
+	 */
+	public void appendRentalAgreement (AgreementTemplate template, StoreInfo store, CustomerInfo customer,
+			List<CheckoutData> checkoutData, DateCodec dateCodec, Appendable out) throws IOException {
+		Charset charset = template.getCharset();
+		if(decoder == null || !decoder.charset().equals(charset)) {
+			decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		output.reset();
+		template.writeHeader(store, customer, output);
+		appendSection(out, 0);
 		int counter = 1;
 		for(CheckoutData data : checkoutData) {
-			buff.append("Tool #" + counter++);
-			buff.append(LINE_SEPARATOR);
-			buff.append("================");
-			buff.append(LINE_SEPARATOR); 
-			Tool tool = data.getTool();
-			ToolType toolType = tool.getType();
-			buff.append("Tool Code: "); buff.append(tool.getCode()); 
-			buff.append(LINE_SEPARATOR); 
-			buff.append("Tool Type: "); buff.append(toolType.getToolTtype()); 
-			buff.append(LINE_SEPARATOR); 
-			buff.append("Tool Brand: "); buff.append(tool.getBrand()); 
-			buff.append(LINE_SEPARATOR); 
-			buff.append("Rental Days: "); buff.append(data.getRentalDayCount());
-			buff.append(LINE_SEPARATOR); 
-			buff.append("Check Out Date: "); 
-			buff.append(ToolRentalUtils.formatDate(data.getCheckoutDate(), dateFormat)); 
-			buff.append(LINE_SEPARATOR); 
-			buff.append("Due Date: "); 
-			buff.append(ToolRentalUtils.formatDate(data.getDueDate(), dateFormat)); 
-			buff.append(LINE_SEPARATOR); 
-			buff.append("Daily rental charge rate: weekdays - "); 
-			buff.append("$"+ toolType.getWeekdayRent() + ", weekends -" + "$"+ toolType.getWeekendRent() + ", holidays - " + "$"+ toolType.getHolidayRent());
-			buff.append(LINE_SEPARATOR); 
-			buff.append("Charge Days (Days actually charged): weekdays - "); 
-			buff.append((toolType.isChargedWeekday() ? data.getNumWeekDays() : 0) 
-					+ ", weekends -" + (toolType.isChargedWeekend() ? data.getNumWeekendDays() : 0)  
-							+ ", holidays - " + (toolType.isChargedHoliday() ? data.getNumHolidays() : 0));
-			buff.append(LINE_SEPARATOR); 
-			buff.append("Pre-discount charge: "); buff.append("$"+ data.getGrossRentAmount()); 
-			buff.append(LINE_SEPARATOR);
-			buff.append("Discount percent: "); buff.append(data.getDiscountPercent() + "%"); 
-			buff.append(LINE_SEPARATOR);
-			buff.append("Discount Amount: "); buff.append("$"+ data.getDiscountAmount()); 
-			buff.append(LINE_SEPARATOR);
-			buff.append("Final Charge: "); buff.append("$"+ data.getNetRentAmount()); 
-			buff.append(LINE_SEPARATOR);
-			buff.append("================");
+			int sectionStart = output.size();
+			template.writeTool(data, counter++, dateCodec, output);
+			appendSection(out, sectionStart);
+		}
+		int footerStart = output.size();
+		template.writeFooter(store, customer, output);
+		appendSection(out, footerStart);
+	}
+
+	/**
+	 * Appends the rental agreement to an Appendable with a template, and queues a copy of it to be archived.
+	 * The copy is archived in the charset of the template.
+	 * @param template
+	 * @param store
+	 * @param customer
+	 * @param checkoutData
+	 * @param dateCodec
+	 * @param out a Writer is not flushed nor closed.
+	 * @param archiver
+	 * @param checkoutId id the agreement is archived with.
+	 * @return a future completed once the copy is durably archived.
+	 * @throws IOException if the Appendable can't be written.
+	 * @throws InterruptedException if interrupted while waiting for the archiver to have space.
+	 */
+	public Future<Void> appendRentalAgreement (AgreementTemplate template, StoreInfo store, CustomerInfo customer,
+			List<CheckoutData> checkoutData, DateCodec dateCodec, Appendable out, AgreementArchiver archiver,
+			String checkoutId) throws IOException, InterruptedException {
+		appendRentalAgreement(template, store, customer, checkoutData, dateCodec, out);
+		return archiver.archive(checkoutId, output.toByteArray());
+	}
 
-			
-			System.out.println(buff.toString());
-			
+	/**
+	 * Decodes what was rendered since a size, and writes it to an Appendable.
+	 */
+	private void appendSection(Appendable out, int from) throws IOException {
+		ByteBuffer section = output.wrap(from);
+		int length = (int) Math.ceil(section.remaining() * (double) decoder.maxCharsPerByte());
+		if(chars.capacity() < length) {
+			chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+		}
+		chars.clear();
+		decoder.reset();
+		//The buffer holds the longest decoding of the section, so it never overflows.
+		decoder.decode(section, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		if(out instanceof Writer) {
+			((Writer) out).write(chars.array(), 0, chars.limit());
+		} else {
+			out.append(chars);
 		}
-		
 	}
 }
@@ -0,0 +1,78 @@
+package toolrental;
+
+import java.time.LocalDate;
+
+/**
+ * Booking of a tool for a range of days, from the checkout date to the due date, both included. <br/>
+ * Instances are immutable.
+ * @author Binod
+ *
+ */
+public final class Reservation {
+
+	private final String toolCode;
+	private final long startDay;
+	private final long endDay;
+
+	/**
+	 * 
+	 * @param toolCode
+	 * @param checkoutDate first day of the booking.
+	 * @param dueDate last day of the booking, not before the checkout date.
+	 */
+	public Reservation(String toolCode, LocalDate checkoutDate, LocalDate dueDate) {
+		if(dueDate.isBefore(checkoutDate)) {
+			throw new IllegalArgumentException("Due date " + dueDate + " is before checkout date " + checkoutDate);
+		}
+		this.toolCode = toolCode.toUpperCase();
+		this.startDay = checkoutDate.toEpochDay();
+		this.endDay = dueDate.toEpochDay();
+	}
+
+	/**
+	 * Gives the uppercase code of the tool booked.
+	 * @return
+	 */
+	public String getToolCode() {
+		return toolCode;
+	}
+
+	public LocalDate getCheckoutDate() {
+		return LocalDate.ofEpochDay(startDay);
+	}
+
+	public LocalDate getDueDate() {
+		return LocalDate.ofEpochDay(endDay);
+	}
+
+	/**
+	 * Gives the first day of the booking, as an epoch day.
+	 * @return
+	 */
+	public long getStartDay() {
+		return startDay;
+	}
+
+	/**
+	 * Gives the last day of the booking, as an epoch day.
+	 * @return
+	 */
+	public long getEndDay() {
+		return endDay;
+	}
+
+	/**
+	 * Tells if this booking has a day in common with a range of days.
+	 * @param fromDay first epoch day of the range.
+	 * @param toDay last epoch day of the range.
+	 * @return
+	 */
+	public boolean overlaps(long fromDay, long toDay) {
+		return startDay <= toDay && fromDay <= endDay;
+	}
+
+	@Override
+	public String toString() {
+		return toolCode + " " + getCheckoutDate() + " - " + getDueDate();
+	}
+}
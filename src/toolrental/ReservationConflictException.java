@@ -0,0 +1,45 @@
+package toolrental;
+
+/**
+ * Exception for a tool that can't be reserved, as it is already booked for one of the days.
+ * @author Binod
+ *
+ */
+public class ReservationConflictException extends ToolRentalException {
+
+	private final int index;
+	private final Reservation reservation;
+	private final Reservation conflict;
+
+	public ReservationConflictException(int index, Reservation reservation, Reservation conflict) {
+		super(AppErrorMessage.TOOL_NOT_AVAILABLE + reservation + ", booked " 
+				+ conflict.getCheckoutDate() + " - " + conflict.getDueDate());
+		this.index = index;
+		this.reservation = reservation;
+		this.conflict = conflict;
+	}
+
+	/**
+	 * Gives the position of the reservation that failed in the reservations booked together, starting from 0.
+	 * @return
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Gives the reservation that failed.
+	 * @return
+	 */
+	public Reservation getReservation() {
+		return reservation;
+	}
+
+	/**
+	 * Gives the booking already in the ledger for the same days.
+	 * @return
+	 */
+	public Reservation getConflict() {
+		return conflict;
+	}
+}
@@ -0,0 +1,340 @@
+package toolrental;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bookings of the tools, to not rent the same tool twice for the same days. <br/>
+ * The bookings of each tool code are kept in a tree by their first day. They never overlap, so the only booking
+ * that can overlap a range of days is the last one starting on or before the end of the range. Availability
+ * and overlap queries are therefore answered in logarithmic time, whatever the number of bookings of the tool. <br/>
+ * <br/>
+ * The tool codes are spread over stripes, each one with its own lock, so that terminals booking different tools
+ * rarely wait for each other. An order of several tools locks the stripes of all its tools, always in the order
+ * of the stripes, so that two orders never wait for each other in a deadlock, and then books all the tools or none.
+ * @author Binod
+ *
+ */
+public class ReservationLedger {
+
+	public static final int DEFAULT_STRIPE_COUNT = 64;
+
+	private final Stripe[] stripes;
+	private final LongAdder reservationCount = new LongAdder();
+
+	public ReservationLedger() {
+		this(DEFAULT_STRIPE_COUNT);
+	}
+
+	/**
+	 *
+	 * @param stripeCount number of independently locked parts of the ledger. 1 makes a single lock for all the tools.
+	 */
+	public ReservationLedger(int stripeCount) {
+		if(stripeCount < 1) {
+			throw new IllegalArgumentException("Stripe count should be 1 or more.");
+		}
+		stripes = new Stripe[stripeCount];
+		for(int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Tells if a tool is free for a range of days.
+	 * @param toolCode
+	 * @param checkoutDate first day, included.
+	 * @param dueDate last day, included.
+	 * @return
+	 */
+	public boolean isAvailable(String toolCode, LocalDate checkoutDate, LocalDate dueDate) {
+		String code = toolCode.toUpperCase();
+		Stripe stripe = stripes[stripeIndex(code)];
+		stripe.lock.lock();
+		try {
+			return stripe.findOverlap(code, checkoutDate.toEpochDay(), dueDate.toEpochDay()) == null;
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives the bookings of a tool that have a day in common with a range of days.
+	 * @param toolCode
+	 * @param checkoutDate first day, included.
+	 * @param dueDate last day, included.
+	 * @return the bookings, in the order of their days.
+	 */
+	public List<Reservation> getOverlapping(String toolCode, LocalDate checkoutDate, LocalDate dueDate) {
+		String code = toolCode.toUpperCase();
+		long fromDay = checkoutDate.toEpochDay();
+		long toDay = dueDate.toEpochDay();
+		List<Reservation> overlapping = new ArrayList<Reservation>();
+		Stripe stripe = stripes[stripeIndex(code)];
+		stripe.lock.lock();
+		try {
+			TreeMap<Long, Reservation> toolBookings = stripe.bookings.get(code);
+			if(toolBookings == null) {
+				return overlapping;
+			}
+			//Only the booking starting last before the range can start before it and still overlap it.
+			Long first = toolBookings.floorKey(fromDay);
+			for(Reservation reservation : toolBookings.subMap(first == null ? fromDay : first, true, toDay, true).values()) {
+				if(reservation.overlaps(fromDay, toDay)) {
+					overlapping.add(reservation);
+				}
+			}
+			return overlapping;
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Books a tool.
+	 * @param reservation
+	 * @throws ReservationConflictException if the tool is already booked for one of the days.
+	 */
+	public void reserve(Reservation reservation) throws ReservationConflictException {
+		Stripe stripe = stripes[stripeIndex(reservation.getToolCode())];
+		stripe.lock.lock();
+		try {
+			stripe.checkAvailable(reservation, 0);
+			stripe.add(reservation);
+		} finally {
+			stripe.lock.unlock();
+		}
+		reservationCount.increment();
+	}
+
+	/**
+	 * Books several tools, all of them or none of them.
+	 * @param reservations
+	 * @throws ReservationConflictException if a tool is already booked for one of its days, including by another
+	 * of the reservations. None of the tools is booked then.
+	 */
+	public void reserveAll(List<Reservation> reservations) throws ReservationConflictException {
+		rebook(Collections.<Reservation>emptyList(), reservations);
+	}
+
+	/**
+	 * Replaces bookings with others in one step, for example when a checkout is run again. <br/>
+	 * The stripes of both the old and the new bookings stay locked the whole time, so no other booking can take
+	 * the days of the old bookings before the new ones are made.
+	 * @param previous bookings to free. The ones not in the ledger are ignored.
+	 * @param reservations bookings to make, all of them or none of them.
+	 * @throws ReservationConflictException if a tool is already booked for one of its days, other than by the
+	 * previous bookings. The previous bookings are then kept, and none of the new ones is made.
+	 */
+	public void rebook(List<Reservation> previous, List<Reservation> reservations) throws ReservationConflictException {
+		List<Reservation> all = new ArrayList<Reservation>(previous.size() + reservations.size());
+		all.addAll(previous);
+		all.addAll(reservations);
+		int[] stripeIndexes = lockStripes(all);
+		List<Reservation> removed = new ArrayList<Reservation>(previous.size());
+		int added = 0;
+		try {
+			for(Reservation reservation : previous) {
+				if(stripes[stripeIndex(reservation.getToolCode())].remove(reservation)) {
+					removed.add(reservation);
+				}
+			}
+			for(Reservation reservation : reservations) {
+				Stripe stripe = stripes[stripeIndex(reservation.getToolCode())];
+				stripe.checkAvailable(reservation, added);
+				stripe.add(reservation);
+				added++;
+			}
+		} catch (ReservationConflictException e) {
+			//Undo the new bookings first, as the previous ones may have the same days.
+			for(int i = 0; i < added; i++) {
+				stripes[stripeIndex(reservations.get(i).getToolCode())].remove(reservations.get(i));
+			}
+			for(Reservation reservation : removed) {
+				stripes[stripeIndex(reservation.getToolCode())].add(reservation);
+			}
+			throw e;
+		} finally {
+			unlockStripes(stripeIndexes);
+		}
+		reservationCount.add(added - removed.size());
+	}
+
+	/**
+	 * Frees the days of a booking, for example when the tool is returned or the checkout is canceled.
+	 * @param reservation
+	 * @return false if the booking was not in the ledger.
+	 */
+	public boolean release(Reservation reservation) {
+		Stripe stripe = stripes[stripeIndex(reservation.getToolCode())];
+		boolean removed;
+		stripe.lock.lock();
+		try {
+			removed = stripe.remove(reservation);
+		} finally {
+			stripe.lock.unlock();
+		}
+		if(removed) {
+			reservationCount.decrement();
+		}
+		return removed;
+	}
+
+	/**
+	 * Frees the days of several bookings.
+	 * @param reservations
+	 */
+	public void releaseAll(List<Reservation> reservations) {
+		int[] stripeIndexes = lockStripes(reservations);
+		int removed = 0;
+		try {
+			for(Reservation reservation : reservations) {
+				if(stripes[stripeIndex(reservation.getToolCode())].remove(reservation)) {
+					removed++;
+				}
+			}
+		} finally {
+			unlockStripes(stripeIndexes);
+		}
+		reservationCount.add(-removed);
+	}
+
+	/**
+	 * Frees the bookings whose due date is before a date, as their days are past and can no longer conflict
+	 * with a checkout. Call it regularly, for example once a day, so that the ledger does not keep every
+	 * booking ever made.
+	 * @param date first day whose bookings are kept.
+	 * @return the number of bookings freed.
+	 */
+	public int releaseEndedBefore(LocalDate date) {
+		long day = date.toEpochDay();
+		int removed = 0;
+		for(Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				removed += stripe.removeEndedBefore(day);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		reservationCount.add(-removed);
+		return removed;
+	}
+
+	/**
+	 * Gives the number of bookings in the ledger.
+	 * @return
+	 */
+	public int getReservationCount() {
+		return reservationCount.intValue();
+	}
+
+	/**
+	 * Locks the stripes of the tools of some reservations, in the order of the stripes.
+	 * @return the indexes of the stripes locked.
+	 */
+	private int[] lockStripes(List<Reservation> reservations) {
+		int[] stripeIndexes = new int[reservations.size()];
+		for(int i = 0; i < stripeIndexes.length; i++) {
+			stripeIndexes[i] = stripeIndex(reservations.get(i).getToolCode());
+		}
+		Arrays.sort(stripeIndexes);
+		//Keep each stripe once.
+		int count = 0;
+		for(int i = 0; i < stripeIndexes.length; i++) {
+			if(count == 0 || stripeIndexes[count - 1] != stripeIndexes[i]) {
+				stripeIndexes[count++] = stripeIndexes[i];
+			}
+		}
+		stripeIndexes = Arrays.copyOf(stripeIndexes, count);
+		for(int i = 0; i < count; i++) {
+			stripes[stripeIndexes[i]].lock.lock();
+		}
+		return stripeIndexes;
+	}
+
+	private void unlockStripes(int[] stripeIndexes) {
+		for(int i = stripeIndexes.length - 1; i >= 0; i--) {
+			stripes[stripeIndexes[i]].lock.unlock();
+		}
+	}
+
+	private int stripeIndex(String toolCode) {
+		//Mix the high bits in, as similar tool codes often have the same low bits.
+		int hash = toolCode.hashCode();
+		hash ^= (hash >>> 16);
+		return (hash & 0x7FFFFFFF) % stripes.length;
+	}
+
+	/**
+	 * Bookings of the tool codes of one stripe. Accessed only while holding its lock.
+	 */
+	private static final class Stripe {
+		private final ReentrantLock lock = new ReentrantLock();
+		//Bookings of each tool code, by first epoch day.
+		private final Map<String, TreeMap<Long, Reservation>> bookings = new HashMap<String, TreeMap<Long, Reservation>>();
+
+		void checkAvailable(Reservation reservation, int index) throws ReservationConflictException {
+			Reservation overlap = findOverlap(reservation.getToolCode(), reservation.getStartDay(), reservation.getEndDay());
+			if(overlap != null) {
+				throw new ReservationConflictException(index, reservation, overlap);
+			}
+		}
+
+		Reservation findOverlap(String toolCode, long fromDay, long toDay) {
+			TreeMap<Long, Reservation> toolBookings = bookings.get(toolCode);
+			if(toolBookings == null) {
+				return null;
+			}
+			Map.Entry<Long, Reservation> last = toolBookings.floorEntry(toDay);
+			return last != null && last.getValue().getEndDay() >= fromDay ? last.getValue() : null;
+		}
+
+		void add(Reservation reservation) {
+			TreeMap<Long, Reservation> toolBookings = bookings.get(reservation.getToolCode());
+			if(toolBookings == null) {
+				toolBookings = new TreeMap<Long, Reservation>();
+				bookings.put(reservation.getToolCode(), toolBookings);
+			}
+			toolBookings.put(reservation.getStartDay(), reservation);
+		}
+
+		boolean remove(Reservation reservation) {
+			TreeMap<Long, Reservation> toolBookings = bookings.get(reservation.getToolCode());
+			if(toolBookings == null || toolBookings.get(reservation.getStartDay()) != reservation) {
+				return false;
+			}
+			toolBookings.remove(reservation.getStartDay());
+			if(toolBookings.isEmpty()) {
+				bookings.remove(reservation.getToolCode());
+			}
+			return true;
+		}
+
+		int removeEndedBefore(long day) {
+			int removed = 0;
+			Iterator<TreeMap<Long, Reservation>> toolIterator = bookings.values().iterator();
+			while(toolIterator.hasNext()) {
+				TreeMap<Long, Reservation> toolBookings = toolIterator.next();
+				//The bookings of a tool never overlap, so the ones ending first are also the ones starting first.
+				while(!toolBookings.isEmpty() && toolBookings.firstEntry().getValue().getEndDay() < day) {
+					toolBookings.pollFirstEntry();
+					removed++;
+				}
+				if(toolBookings.isEmpty()) {
+					toolIterator.remove();
+				}
+			}
+			return removed;
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package toolrental;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Number of units of each tool code in stock, for stores that have many identical units of a tool. <br/>
+ * The units of a tool code are either available, reserved for a customer, or out with a customer.
+ * On hand units are the ones in the store: available or reserved. <br/>
+ * <br/>
+ * No operation takes a lock. The counts of each tool code are atomic counters, and a unit is taken from a count
+ * with a compare-and-set that never lets the count go below zero, so two checkouts can't take the same last unit.
+ * Totals by tool type are kept up to date by each operation in LongAdder counters, which many threads can add to
+ * at the same time, so asking for the availability of a tool type does not go through all its tool codes. <br/>
+ * The counts are updated one after the other, so counts read while units move may be off by the units moving,
+ * for example a unit being picked up may be counted as neither reserved nor out for a moment.
+ * @author Binod
+ *
+ */
+public class StockLevels {
+
+	//Counts of each uppercase tool code.
+	private final ConcurrentHashMap<String, Level> levels = new ConcurrentHashMap<String, Level>();
+	//Totals of each uppercase tool type name.
+	private final ConcurrentHashMap<String, Totals> totals = new ConcurrentHashMap<String, Totals>();
+
+	/**
+	 * Adds units of a tool to the stock, as available units. The tool code is added if it is not in stock yet.
+	 * @param tool
+	 * @param quantity
+	 * @throws ToolRentalException if the tool code is already in stock with another tool type.
+	 */
+	public void addStock(Tool tool, int quantity) throws ToolRentalException {
+		checkQuantity(quantity);
+		String typeName = tool.getType().getToolTtype().toUpperCase();
+		Level level = levels.get(tool.getCode());
+		if(level == null) {
+			Totals typeTotals = totals.get(typeName);
+			if(typeTotals == null) {
+				Totals created = new Totals();
+				typeTotals = totals.putIfAbsent(typeName, created);
+				if(typeTotals == null) {
+					typeTotals = created;
+				}
+			}
+			Level created = new Level(typeName, typeTotals);
+			level = levels.putIfAbsent(tool.getCode(), created);
+			if(level == null) {
+				level = created;
+			}
+		}
+		if(!level.typeName.equals(typeName)) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_STOCK_CHANGE + tool.getCode()
+					+ " is in stock as " + level.typeName);
+		}
+		level.available.addAndGet(quantity);
+		level.totals.available.add(quantity);
+	}
+
+	/**
+	 * Removes available units of a tool from the stock, for example when they are sold or broken.
+	 * @param code tool code, in any case.
+	 * @param quantity
+	 * @throws ToolRentalException if the tool code is not in stock or has not enough available units.
+	 */
+	public void removeStock(String code, int quantity) throws ToolRentalException {
+		Level level = takeAvailable(code, quantity);
+		level.totals.available.add(-quantity);
+	}
+
+	/**
+	 * Reserves available units of a tool for a customer, who will pick them up later.
+	 * @param code tool code, in any case.
+	 * @param quantity
+	 * @throws ToolRentalException if the tool code is not in stock or has not enough available units.
+	 */
+	public void reserve(String code, int quantity) throws ToolRentalException {
+		Level level = takeAvailable(code, quantity);
+		level.reserved.addAndGet(quantity);
+		level.totals.available.add(-quantity);
+		level.totals.reserved.add(quantity);
+	}
+
+	/**
+	 * Makes reserved units of a tool available again.
+	 * @param code tool code, in any case.
+	 * @param quantity
+	 * @throws ToolRentalException if the tool code is not in stock or has not that many reserved units.
+	 */
+	public void cancelReservation(String code, int quantity) throws ToolRentalException {
+		Level level = take(code, quantity, false);
+		level.available.addAndGet(quantity);
+		level.totals.reserved.add(-quantity);
+		level.totals.available.add(quantity);
+	}
+
+	/**
+	 * Checks out available units of a tool, without a reservation.
+	 * @param code tool code, in any case.
+	 * @param quantity
+	 * @throws ToolRentalException if the tool code is not in stock or has not enough available units.
+	 */
+	public void checkout(String code, int quantity) throws ToolRentalException {
+		Level level = takeAvailable(code, quantity);
+		level.out.addAndGet(quantity);
+		level.totals.available.add(-quantity);
+		level.totals.out.add(quantity);
+	}
+
+	/**
+	 * Checks out reserved units of a tool, when the customer picks them up.
+	 * @param code tool code, in any case.
+	 * @param quantity
+	 * @throws ToolRentalException if the tool code is not in stock or has not that many reserved units.
+	 */
+	public void pickUp(String code, int quantity) throws ToolRentalException {
+		Level level = take(code, quantity, false);
+		level.out.addAndGet(quantity);
+		level.totals.reserved.add(-quantity);
+		level.totals.out.add(quantity);
+	}
+
+	/**
+	 * Returns units of a tool that were out, making them available again.
+	 * @param code tool code, in any case.
+	 * @param quantity
+	 * @throws ToolRentalException if the tool code is not in stock or has not that many units out.
+	 */
+	public void returnTool(String code, int quantity) throws ToolRentalException {
+		Level level = take(code, quantity, true);
+		level.available.addAndGet(quantity);
+		level.totals.out.add(-quantity);
+		level.totals.available.add(quantity);
+	}
+
+	/**
+	 * Gives the number of units of a tool that can be reserved or checked out.
+	 * @param code tool code, in any case.
+	 * @return 0 if the tool code is not in stock.
+	 */
+	public long getAvailable(String code) {
+		Level level = levels.get(code.toUpperCase());
+		return level == null ? 0 : level.available.get();
+	}
+
+	/**
+	 * Gives the number of units of a tool reserved for customers.
+	 * @param code tool code, in any case.
+	 * @return 0 if the tool code is not in stock.
+	 */
+	public long getReserved(String code) {
+		Level level = levels.get(code.toUpperCase());
+		return level == null ? 0 : level.reserved.get();
+	}
+
+	/**
+	 * Gives the number of units of a tool out with customers.
+	 * @param code tool code, in any case.
+	 * @return 0 if the tool code is not in stock.
+	 */
+	public long getOut(String code) {
+		Level level = levels.get(code.toUpperCase());
+		return level == null ? 0 : level.out.get();
+	}
+
+	/**
+	 * Gives the number of units of a tool in the store, available or reserved.
+	 * @param code tool code, in any case.
+	 * @return 0 if the tool code is not in stock.
+	 */
+	public long getOnHand(String code) {
+		Level level = levels.get(code.toUpperCase());
+		return level == null ? 0 : level.available.get() + level.reserved.get();
+	}
+
+	/**
+	 * Gives the number of units of all the tools of a tool type that can be reserved or checked out.
+	 * @param toolType name of the tool type, in any case.
+	 * @return 0 if no tool of this type is in stock.
+	 */
+	public long getAvailableByType(String toolType) {
+		Totals typeTotals = totals.get(toolType.toUpperCase());
+		return typeTotals == null ? 0 : typeTotals.available.sum();
+	}
+
+	/**
+	 * Gives the number of units of all the tools of a tool type reserved for customers.
+	 * @param toolType name of the tool type, in any case.
+	 * @return 0 if no tool of this type is in stock.
+	 */
+	public long getReservedByType(String toolType) {
+		Totals typeTotals = totals.get(toolType.toUpperCase());
+		return typeTotals == null ? 0 : typeTotals.reserved.sum();
+	}
+
+	/**
+	 * Gives the number of units of all the tools of a tool type out with customers.
+	 * @param toolType name of the tool type, in any case.
+	 * @return 0 if no tool of this type is in stock.
+	 */
+	public long getOutByType(String toolType) {
+		Totals typeTotals = totals.get(toolType.toUpperCase());
+		return typeTotals == null ? 0 : typeTotals.out.sum();
+	}
+
+	/**
+	 * Gives the number of units of all the tools of a tool type in the store, available or reserved.
+	 * @param toolType name of the tool type, in any case.
+	 * @return 0 if no tool of this type is in stock.
+	 */
+	public long getOnHandByType(String toolType) {
+		Totals typeTotals = totals.get(toolType.toUpperCase());
+		return typeTotals == null ? 0 : typeTotals.available.sum() + typeTotals.reserved.sum();
+	}
+
+	/**
+	 * Takes available units of a tool code, failing if there are not enough of them.
+	 */
+	private Level takeAvailable(String code, int quantity) throws ToolRentalException {
+		checkQuantity(quantity);
+		Level level = getLevel(code);
+		if(!decrement(level.available, quantity)) {
+			throw new ToolRentalException(AppErrorMessage.NOT_ENOUGH_STOCK + code.toUpperCase()
+					+ ", " + quantity + " asked, " + level.available.get() + " available");
+		}
+		return level;
+	}
+
+	/**
+	 * Takes reserved units, or units out, of a tool code, failing if there are not that many of them.
+	 */
+	private Level take(String code, int quantity, boolean out) throws ToolRentalException {
+		checkQuantity(quantity);
+		Level level = getLevel(code);
+		if(!decrement(out ? level.out : level.reserved, quantity)) {
+			throw new ToolRentalException(AppErrorMessage.INVALID_STOCK_CHANGE + code.toUpperCase() + " has fewer than "
+					+ quantity + (out ? " units out" : " units reserved"));
+		}
+		return level;
+	}
+
+	private Level getLevel(String code) throws ToolRentalException {
+		Level level = levels.get(code.toUpperCase());
+		if(level == null) {
+			throw new ToolRentalException(AppErrorMessage.UNKNOWN_TOOL_CODE + code);
+		}
+		return level;
+	}
+
+	/**
+	 * Subtracts a quantity from a count, unless the count is smaller than the quantity.
+	 * @return false if the count is smaller than the quantity.
+	 */
+	private static boolean decrement(AtomicLong count, int quantity) {
+		while(true) {
+			long current = count.get();
+			if(current < quantity) {
+				return false;
+			}
+			if(count.compareAndSet(current, current - quantity)) {
+				return true;
+			}
+		}
+	}
+
+	private static void checkQuantity(int quantity) {
+		if(quantity < 1) {
+			throw new IllegalArgumentException("Quantity should be 1 or more.");
+		}
+	}
+
+	/**
+	 * Counts of a tool code.
+	 */
+	private static final class Level {
+		final String typeName;
+		final Totals totals;
+		final AtomicLong available = new AtomicLong();
+		final AtomicLong reserved = new AtomicLong();
+		final AtomicLong out = new AtomicLong();
+
+		Level(String typeName, Totals totals) {
+			this.typeName = typeName;
+			this.totals = totals;
+		}
+	}
+
+	/**
+	 * Totals of all the tool codes of a tool type.
+	 */
+	private static final class Totals {
+		final LongAdder available = new LongAdder();
+		final LongAdder reserved = new LongAdder();
+		final LongAdder out = new LongAdder();
+	}
+}
@@ -0,0 +1,59 @@
+package toolrental;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Store printed at the top of the rental agreements. <br/>
+ * Instances are immutable, and equal stores share the same pre-encoded header block of a template.
+ * @author Binod
+ *
+ */
+public final class StoreInfo {
+
+	private final String name;
+	private final List<String> addressLines;
+	private final String phone;
+
+	/**
+	 * 
+	 * @param name
+	 * @param addressLines lines of the address, printed one per line.
+	 * @param phone
+	 */
+	public StoreInfo(String name, List<String> addressLines, String phone) {
+		this.name = name;
+		this.addressLines = Collections.unmodifiableList(new ArrayList<String>(addressLines));
+		this.phone = phone;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<String> getAddressLines() {
+		return addressLines;
+	}
+
+	public String getPhone() {
+		return phone;
+	}
+
+	@Override
+	public int hashCode() {
+		return (name.hashCode() * 31 + addressLines.hashCode()) * 31 + phone.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof StoreInfo)) {
+			return false;
+		}
+		StoreInfo other = (StoreInfo) obj;
+		return name.equals(other.name) && addressLines.equals(other.addressLines) && phone.equals(other.phone);
+	}
+}
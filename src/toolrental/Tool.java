@@ -38,7 +38,7 @@ public class Tool {
 	        return true;
 	    if (obj == null)
 	        return false;
-	    if (!(obj instanceof ToolType))
+	    if (!(obj instanceof Tool))
 	        return false;
 	    Tool other = (Tool) obj;
 	    return code == null ? other.code == null : code.equals(other.code);
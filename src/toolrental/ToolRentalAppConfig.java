@@ -1,18 +1,18 @@
 package toolrental;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** 
  * Singleton to load configuration data from external file. 
@@ -28,20 +28,60 @@ public class ToolRentalAppConfig {
 	
 	private static final String CONFIG_FILE = "resources/tool-rental-config.txt";
 	private static final String INVENTORY_FILE = "resources/tools-inventory.txt";
+	//Binary snapshot of the loaded inventory, used instead of parsing the inventory file when the file has not changed.
+	private static final String INVENTORY_SNAPSHOT_FILE = "resources/tools-inventory.snapshot";
 	
 	//Externally loaded configuration properties are stored in this.
 	private Properties prop = new Properties();
 	
-	private static List<Tool> toolInventory = new ArrayList<Tool>();
+	//Settings of the configuration file, parsed and validated once when it is loaded.
+	private volatile AppSettings settings = AppSettings.getDefaults();
 	
-	private String[] holidays = null;
+	//Current version of the loaded inventory, null until the inventory is loaded. 
+	//A reload builds a new immutable index and then swaps it in, so readers never see a partly loaded inventory, 
+	//and never wait for a reload.
+	private final AtomicReference<InventoryIndex> inventoryIndex = new AtomicReference<InventoryIndex>();
+	
+	//Only one load of the inventory at a time. Readers don't take this lock.
+	private final Object inventoryLoadLock = new Object();
+	
+	//Watcher of the inventory file, null if hot reload is off.
+	private InventoryWatcher inventoryWatcher = null;
+	
+	//Shared tool types and strings of the inventory. Kept across loads, so that reloaded tools share them too.
+	//Instances no tool uses any more, such as old rate cards replaced by a reload or a delta, are dropped.
+	private final ToolTypeRegistry toolTypeRegistry = new ToolTypeRegistry();
+	
+	//Observed holidays, compiled from the holiday rules in the configuration file.
+	private volatile HolidayCalendar holidayCalendar = HolidayCalendar.getDefault();
+	
+	//Index of billable day counts for the observed holidays. It is built on first use.
+	private volatile DayClassIndex dayClassIndex = new DayClassIndex(holidayCalendar, 
+			DayClassIndex.DEFAULT_FIRST_YEAR, DayClassIndex.DEFAULT_LAST_YEAR);
+	
+	//Optional trace of the checkout calculations, null when tracing is off.
+	private volatile CalculationTrace calculationTrace = null;
+	
+	//Optional cache of quote results, null when caching is off.
+	private volatile QuoteCache quoteCache = null;
+	
+	//Layout of the rental agreements, with its cached store and customer blocks.
+	private volatile AgreementTemplate agreementTemplate = AgreementTemplate.getDefault();
+	
+	//Bookings of the tools, used by the checkouts when tool reservations are on.
+	private final ReservationLedger reservationLedger = new ReservationLedger();
+	
+	//Optional archive of the printed agreements, null when agreements are not archived.
+	private volatile AgreementArchiver agreementArchiver = null;
+	//Closes the archiver when the JVM exits, so that the agreements still queued are written.
+	private Thread archiverShutdownHook = null;
 	
 	//make constructor private to not allow any other instantiation
 	private ToolRentalAppConfig(){}
 	
 	public static ToolRentalAppConfig getInstance(){return INSTANCE;}
 	
-	public void loadConfig() throws IOException { 
+	public void loadConfig() throws IOException, ToolRentalException { 
 
 		Path path = Paths.get(CONFIG_FILE); 
 		
@@ -56,11 +96,111 @@ public class ToolRentalAppConfig {
 	        prop.load(is);
 		}  
 		
+		//Parse and validate all the settings before using any of them.
+		AppSettings loaded = AppSettings.parse(prop);
+		settings = loaded;
+		
+		loadHolidayRules(loaded);
+		dayClassIndex = new DayClassIndex(holidayCalendar, loaded.getDayIndexFirstYear(), loaded.getDayIndexLastYear());
+		
+		if(loaded.isCalculationTrace() && calculationTrace == null) {
+			calculationTrace = new AsyncCalculationTraceWriter(System.out);
+		}
+		
+		quoteCache = loaded.getQuoteCacheSize() == 0 ? null : new QuoteCache(loaded.getQuoteCacheSize());
+		
+		if(loaded.getAgreementTemplateFile() != null) {
+			//Charset of the agreements written to streams and archived. The console is written as text,
+			//through its PrintStream, which encodes it in its own charset.
+			agreementTemplate = AgreementTemplate.load(Paths.get(loaded.getAgreementTemplateFile()), Charset.defaultCharset());
+			System.out.println("Loaded agreement template from " + loaded.getAgreementTemplateFile());
+		} else {
+			agreementTemplate = AgreementTemplate.getDefault();
+		}
+		
+		if(loaded.getAgreementArchiveDir() != null && agreementArchiver == null) {
+			openAgreementArchiver(loaded.getAgreementArchiveDir());
+		}
+		
 		System.out.println("Succefully loaded config file from " + CONFIG_FILE);
 		
 	} 
 	
+	/**
+	 * Loads the inventory, and publishes it as a new version. <br/>
+	 * Checkouts that already started keep the version they started with. If hot reload is on in the configuration,
+	 * the inventory file is then watched, and reloaded when it changes.
+	 */
 	public void loadInventory() throws IOException, ToolRentalException { 
+		synchronized(inventoryLoadLock) {
+			loadInventoryVersion();
+			
+			if(settings.isInventoryHotReload() && inventoryWatcher == null) {
+				inventoryWatcher = new InventoryWatcher(Paths.get(INVENTORY_FILE), new Runnable() {
+					@Override
+					public void run() {
+						reloadInventory();
+					}
+				});
+				System.out.println("Watching " + INVENTORY_FILE + " for changes");
+			}
+		}
+	}
+	
+	/**
+	 * Reloads the inventory after a change of the inventory file. If the file is not valid,
+	 * the current version is kept.
+	 */
+	private void reloadInventory() {
+		synchronized(inventoryLoadLock) {
+			try {
+				loadInventoryVersion();
+			} catch (IOException | ToolRentalException e) {
+				InventoryIndex current = inventoryIndex.get();
+				System.out.println("Inventory not reloaded, keeping version " 
+						+ (current == null ? 0 : current.getVersion()) + ": " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Applies a delta file to the loaded inventory, and publishes the result as a new version. <br/>
+	 * Only the changed tools are indexed again, so this is much faster than a reload for a few changes.
+	 * The inventory file is not changed: a reload of the inventory file replaces the changes made by deltas.
+	 * @param deltaFile file of changes, see {@link InventoryDelta}.
+	 * @throws IOException if the file can't be read.
+	 * @throws ToolRentalException if the inventory is not loaded, or the delta is not valid. The inventory is then not changed.
+	 */
+	public void applyInventoryDelta(Path deltaFile) throws IOException, ToolRentalException {
+		synchronized(inventoryLoadLock) {
+			InventoryIndex current = inventoryIndex.get();
+			if(current == null) {
+				throw new ToolRentalException(AppErrorMessage.INVENTORY_NOT_LOADED);
+			}
+			InventoryDelta delta = InventoryDelta.read(deltaFile, toolTypeRegistry);
+			InventoryIndex changed = current.applyDelta(delta);
+			inventoryIndex.set(changed);
+			System.out.println("Applied " + delta.size() + " inventory change(s) from " + deltaFile 
+					+ ", Tool Count = " + changed.size() + ", version = " + changed.getVersion());
+		}
+	}
+	
+	/**
+	 * Stops watching the inventory file, if hot reload is on.
+	 */
+	public void stopInventoryHotReload() throws IOException, InterruptedException {
+		InventoryWatcher watcher;
+		synchronized(inventoryLoadLock) {
+			watcher = inventoryWatcher;
+			inventoryWatcher = null;
+		}
+		//Outside of the lock, as a reload in progress takes the lock before the watcher can stop.
+		if(watcher != null) {
+			watcher.close();
+		}
+	}
+	
+	private void loadInventoryVersion() throws IOException, ToolRentalException { 
 
 		Path path = Paths.get(INVENTORY_FILE); 
 		
@@ -71,41 +211,218 @@ public class ToolRentalAppConfig {
 			throw new FileNotFoundException(absolutePath);
 		}
 		
-		int toolCount = 0;
-	    try (BufferedReader br = new BufferedReader(new FileReader(inventoryFile))) {
-	    	while (true) {
-	    		String line = br.readLine();
-	    		if(line == null) {
-	    			break;
-	    		}
-	    		line = line.trim();
-	    		if(line.startsWith("#") || line.equals("")) {
-	    			continue;
-	    		}
-	    		toolInventory.add(ToolRentalUtils.validateAndCreateTool(line)); 
-	    		toolCount++;
-	    	} 	    	
-	    } 
+		long sharedToolTypeCount = toolTypeRegistry.getSharedToolTypeCount();
+		long sharedStringCount = toolTypeRegistry.getSharedStringCount();
+		long bytesSaved = toolTypeRegistry.getEstimatedBytesSaved();
+		
+		
+		//Use the snapshot if it was made from this very inventory file, it is much faster than parsing.
+		Path snapshotPath = Paths.get(INVENTORY_SNAPSHOT_FILE);
+		long sourceSize = inventoryFile.length();
+		long sourceLastModified = inventoryFile.lastModified();
+		List<Tool> loadedTools = null;
+		String loadedFrom = INVENTORY_SNAPSHOT_FILE;
+		if(Files.exists(snapshotPath)) {
+			try {
+				loadedTools = InventorySnapshot.read(snapshotPath, sourceSize, sourceLastModified, toolTypeRegistry);
+			} catch (IOException e) {
+				System.out.println("Ignoring inventory snapshot: " + e.getMessage());
+			}
+		}
+		
+		if(loadedTools == null) {
+			//The file is memory-mapped and parsed in parallel chunks, as it may be very large.
+			//All invalid lines are reported together, with their line numbers.
+			loadedTools = new InventoryFileLoader(toolTypeRegistry).load(inventoryFile.toPath());
+			loadedFrom = INVENTORY_FILE;
+			try {
+				InventorySnapshot.write(snapshotPath, loadedTools, sourceSize, sourceLastModified);
+			} catch (IOException e) {
+				System.out.println("Could not write inventory snapshot: " + e.getMessage());
+			}
+		}
+		int toolCount = loadedTools.size();
+	    
+		//Build the whole index before publishing it.
+		InventoryIndex current = inventoryIndex.get();
+		InventoryIndex loaded = new InventoryIndex(loadedTools, current == null ? 1 : current.getVersion() + 1);
+		inventoryIndex.set(loaded);
 	    
-		System.out.println("Succefully loaded tool inventory from " + INVENTORY_FILE);
-		System.out.println("Tool Count = " + toolCount);
+		System.out.println("Succefully loaded tool inventory from " + loadedFrom);
+		System.out.println("Tool Count = " + toolCount + ", version = " + loaded.getVersion());
+		System.out.println("Shared tool types = " + (toolTypeRegistry.getSharedToolTypeCount() - sharedToolTypeCount)
+				+ ", shared strings = " + (toolTypeRegistry.getSharedStringCount() - sharedStringCount)
+				+ ", memory saved = about " + (toolTypeRegistry.getEstimatedBytesSaved() - bytesSaved) + " bytes");
 	} 
 	
+	/**
+	 * Compiles the holiday rules declared in the configuration file into a holiday calendar.
+	 * If no holiday is declared, the default holidays (Independence Day and Labor Day) are used.
+	 */
+	private void loadHolidayRules(AppSettings loaded) {
+		List<HolidayRule> rules = loaded.getHolidayRules();
+		if(rules.isEmpty()) {
+			holidayCalendar = HolidayCalendar.getDefault();
+			return;
+		}
+		holidayCalendar = new HolidayCalendar(rules);
+		
+		System.out.println("Holiday Count = " + rules.size());
+	}
+	
+	/**
+	 * Gives the tools of the current version of the inventory.
+	 * @return the tools, or an empty list if the inventory is not loaded.
+	 */
 	public List<Tool> getToolInventory(){
-		List<Tool> umodifiableList = Collections.unmodifiableList(toolInventory);
-		return umodifiableList;
+		InventoryIndex index = inventoryIndex.get();
+		return index == null ? Collections.<Tool>emptyList() : index.getTools();
 	} 
 	
+	/**
+	 * Gives the index of the current version of the inventory, to look up tools by tool code, type or brand. <br/>
+	 * The index never changes: a reload publishes a new index, so keep the index given here for a consistent view.
+	 * @return the index, or null if the inventory is not loaded.
+	 */
+	public InventoryIndex getInventoryIndex() {
+		return inventoryIndex.get();
+	}
+	
+	/**
+	 * Gives the registry of the tool types and strings shared by the tools of the inventory.
+	 * @return
+	 */
+	public ToolTypeRegistry getToolTypeRegistry() {
+		return toolTypeRegistry;
+	}
+	
 	public Properties getConfigProperties() {
 		return prop;
 	}
 	
+	/**
+	 * Gives the layout of the rental agreements.
+	 * @return the configured template, or the default one.
+	 */
+	public AgreementTemplate getAgreementTemplate() {
+		return agreementTemplate;
+	}
+	
+	/**
+	 * Gives the bookings of the tools.
+	 * @return
+	 */
+	public ReservationLedger getReservationLedger() {
+		return reservationLedger;
+	}
+	
+	/**
+	 * Gives the archive of the printed agreements.
+	 * @return the archiver, or null if agreements are not archived.
+	 */
+	public AgreementArchiver getAgreementArchiver() {
+		return agreementArchiver;
+	}
+	
+	/**
+	 * Writes the agreements still waiting to be archived, and stops archiving. <br/>
+	 * Also done when the JVM exits.
+	 */
+	public synchronized void closeAgreementArchiver() throws InterruptedException, IOException {
+		AgreementArchiver archiver = agreementArchiver;
+		agreementArchiver = null;
+		if(archiver != null) {
+			archiver.close();
+		}
+	}
+	
+	private synchronized void openAgreementArchiver(String directory) throws IOException {
+		agreementArchiver = new AgreementArchiver(Paths.get(directory));
+		System.out.println("Archiving agreements in " + directory 
+				+ ", archived count = " + agreementArchiver.getArchivedCount());
+		if(archiverShutdownHook == null) {
+			//The writer thread is a daemon thread, it would be stopped with the agreements still queued.
+			archiverShutdownHook = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						closeAgreementArchiver();
+					} catch (InterruptedException | IOException e) {
+						System.out.println("Could not close the agreement archive: " + e.getMessage());
+					}
+				}
+			}, "agreement-archiver-shutdown");
+			Runtime.getRuntime().addShutdownHook(archiverShutdownHook);
+		}
+	}
+	
+	/**
+	 * Gives the settings of the configuration file, already parsed and validated, 
+	 * or the default settings if the configuration file is not loaded.
+	 * @return
+	 */
+	public AppSettings getSettings() {
+		return settings;
+	}
+	
+	/**
+	 * Gives the calendar of observed holidays, as declared in the configuration file.
+	 * @return
+	 */
+	public HolidayCalendar getHolidayCalendar() {
+		return holidayCalendar;
+	}
+	
+	/**
+	 * Gives the index of billable day counts for the observed holidays.
+	 * @return
+	 */
+	public DayClassIndex getDayClassIndex() {
+		return dayClassIndex;
+	}
+	
+	/**
+	 * Gives the trace of the checkout calculations.
+	 * @return the trace, or null if tracing is off.
+	 */
+	public CalculationTrace getCalculationTrace() {
+		return calculationTrace;
+	}
+	
+	/**
+	 * Sets the trace of the checkout calculations. 
+	 * @param calculationTrace the trace, or null to turn tracing off.
+	 */
+	public void setCalculationTrace(CalculationTrace calculationTrace) {
+		this.calculationTrace = calculationTrace;
+	}
+	
+	/**
+	 * Gives the cache of quote results.
+	 * @return the cache, or null if caching is off.
+	 */
+	public QuoteCache getQuoteCache() {
+		return quoteCache;
+	}
+	
+	/**
+	 * Sets the cache of quote results.
+	 * @param quoteCache the cache, or null to turn caching off.
+	 */
+	public void setQuoteCache(QuoteCache quoteCache) {
+		this.quoteCache = quoteCache;
+	}
+	
 	/**
 	 * This main class is used to test this class during development.
      * 
 	 */
-	public static void main(String[] args) throws IOException, ToolRentalException {
-		ToolRentalAppConfig.getInstance().loadConfig();
-		ToolRentalAppConfig.getInstance().loadInventory();
+	public static void main(String[] args) throws IOException, ToolRentalException, InterruptedException {
+		try {
+			ToolRentalAppConfig.getInstance().loadConfig();
+			ToolRentalAppConfig.getInstance().loadInventory();
+		} finally {
+			ToolRentalAppConfig.getInstance().closeAgreementArchiver();
+		}
 	}
 }
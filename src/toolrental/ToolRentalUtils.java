@@ -2,10 +2,10 @@ package toolrental;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.DateTimeException;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.Month;
-import java.time.format.DateTimeFormatter;
 
 /**
  * Class to collect miscellaneous utility methods.
@@ -17,13 +17,83 @@ public class ToolRentalUtils {
 
 	/**
 	 * For a given date range, it counts how many weekdays, weekend days, and
-	 * holidays occur, excluding the start date and including the end date.
-	 * 
+	 * holidays occur, excluding the start date and including the end date. <br/>
+	 * <br/>
+	 * The counts are derived in constant time from whole-week arithmetic plus the leftover partial week,
+	 * and the observed holidays in the range are then subtracted from the weekdays.
+	 * The result is identical to {@link #countBillableDaysByIteration(LocalDate, LocalDate)}.
+	 *
 	 * @param start
-	 * @param end 
+	 * @param end
 	 * @return an array of integers with three elements in order: number of weekdays, weekend days, and holidays.
 	 */
 	public static int[] countBillableDays(LocalDate start, LocalDate end) {
+		return countBillableDays(start, end, HolidayCalendar.getDefault());
+	}
+
+	/**
+	 * Same as {@link #countBillableDays(LocalDate, LocalDate)}, with the holidays taken from the given calendar.
+	 *
+	 * @param start
+	 * @param end
+	 * @param calendar calendar of observed holidays
+	 * @return an array of integers with three elements in order: number of weekdays, weekend days, and holidays.
+	 */
+	public static int[] countBillableDays(LocalDate start, LocalDate end, HolidayCalendar calendar) {
+		//The contract day itself is not counted, so the range starts from the day after it.
+		long firstDay = start.toEpochDay() + 1;
+		long lastDay = end.toEpochDay();
+		if(lastDay < firstDay) {
+			return new int[] { 0, 0, 0 };
+		}
+
+		int totalDays = (int) (lastDay - firstDay + 1);
+
+		//Every whole week has exactly 5 weekdays and 2 weekend days.
+		int fullWeeks = totalDays / 7;
+		int weekDays = fullWeeks * 5;
+		int weekendDays = fullWeeks * 2;
+
+		//The leftover partial week (less than 7 days) starts on the same day of week as the range.
+		int dayOfWeek = dayOfWeekOf(firstDay);
+		int leftover = totalDays % 7;
+		for(int i = 0; i < leftover; i++) {
+			if(isWeekend(dayOfWeek)) {
+				weekendDays++;
+			} else {
+				weekDays++;
+			}
+			dayOfWeek = dayOfWeek == 7 ? 1 : dayOfWeek + 1;
+		}
+
+		//Observed holidays always fall on a weekday, so they are taken out of the weekday count.
+		int holidays = calendar.countHolidays(start, end);
+		weekDays -= holidays;
+
+		return new int[] { weekDays, weekendDays, holidays };
+	}
+
+	/**
+	 * Same as {@link #countBillableDays(LocalDate, LocalDate)}, but walks the range one day at a time. <br/>
+	 * Kept as the reference implementation for the faster counting methods.
+	 *
+	 * @param start
+	 * @param end
+	 * @return an array of integers with three elements in order: number of weekdays, weekend days, and holidays.
+	 */
+	public static int[] countBillableDaysByIteration(LocalDate start, LocalDate end) {
+		return countBillableDaysByIteration(start, end, HolidayCalendar.getDefault());
+	}
+
+	/**
+	 * Same as {@link #countBillableDaysByIteration(LocalDate, LocalDate)}, with the holidays taken from the given calendar.
+	 *
+	 * @param start
+	 * @param end
+	 * @param calendar calendar of observed holidays
+	 * @return an array of integers with three elements in order: number of weekdays, weekend days, and holidays.
+	 */
+	public static int[] countBillableDaysByIteration(LocalDate start, LocalDate end, HolidayCalendar calendar) {
 		int totalDays = 0;
 		int weekDays = 0;
 		int weekendDays = 0;
@@ -45,7 +115,7 @@ public class ToolRentalUtils {
 			//Holidays. In general, the effect of holidays is to increment the holiday 
 			//count and decrement the weekday count by the same amount. 
 			//There are special cases to be considered for the Independence Day, which will be handled later below.
-			if(isHoliday(date)) {
+			if(calendar.isHoliday(date)) {
 				holidays++;
 				weekDays--;
 			}
@@ -63,35 +133,14 @@ public class ToolRentalUtils {
 	 * For this project, only two holidays are to be considered: a) Independence
 	 * Day, July 4th - If falls on weekend, it is observed on the closest weekday
 	 * (if Sat, then Friday before, if Sunday, then Monday after) <br/>
-	 * b) Labor Day - First Monday in September
+	 * b) Labor Day - First Monday in September <br/>
+	 * <br/>
+	 * The observed holidays are looked up in the default {@link HolidayCalendar}.
 	 * 
 	 * @return
 	 */
 	public static boolean isHoliday(LocalDate date) {
-		if (isLaborDay(date)) {
-			return true;
-		}		
-		
-		if(isIndependenceDay(date)) {
-			//If the Independence day doesn't fall on a weekend, it is a holiday. 
-			if(date.getDayOfWeek() != DayOfWeek.SATURDAY 
-					&& date.getDayOfWeek() != DayOfWeek.SUNDAY) {
-				return true;
-			}
-		}
-		
-		//If it is a Friday and the next day is the Independence Day, it is a holiday.
-		if(date.getDayOfWeek() == DayOfWeek.FRIDAY 
-				&& isIndependenceDay(date.plusDays(1))) { 
-			return true;
-		} 
-		
-		//If it is a Monday and the previous day is the Independence Day, it is a holiday.
-		if(date.getDayOfWeek() == DayOfWeek.MONDAY 
-				&& isIndependenceDay(date.minusDays(1))) {
-			return true;
-		}
-		return false;
+		return HolidayCalendar.getDefault().isHoliday(date);
 	} 
 	
 	/**
@@ -112,25 +161,45 @@ public class ToolRentalUtils {
 	 * @return
 	 */
 	public static boolean isLaborDay (LocalDate date) { 
-		// To find out correct Labor day, iterate over the first 7 days of Sept.
-		
 		if (date.getMonth() == Month.SEPTEMBER) {
-			LocalDate firstDayOfSept = LocalDate.of(date.getYear(), 9, 1);
-			LocalDate seventhtDayOfSept = LocalDate.of(date.getYear(), 9, 7);
-			int laborDay = 0;
-			for (LocalDate d1 = firstDayOfSept; d1.isBefore(seventhtDayOfSept.plusDays(1)); d1 = d1.plusDays(1)) {
-				if (d1.getDayOfWeek() == DayOfWeek.MONDAY) {
-					laborDay = d1.getDayOfMonth();
-					break;
-				}
-			}
-
-			if(laborDay == date.getDayOfMonth()) { //Labor Day was found 
-				return true;
-			}			
+			return date.equals(getLaborDay(date.getYear()));
 		}
 		return false;
 	}
+
+	/**
+	 * Gives the date on which Independence Day is observed in a given year.
+	 * If July 4th falls on Saturday, it is observed on the Friday before, if Sunday, on the Monday after.
+	 * @param year
+	 * @return
+	 */
+	public static LocalDate getObservedIndependenceDay(int year) {
+		return HolidayRule.INDEPENDENCE_DAY.getDate(year);
+	}
+
+	/**
+	 * Gives the date of Labor Day, the first Monday in September, for a given year.
+	 * @param year
+	 * @return
+	 */
+	public static LocalDate getLaborDay(int year) {
+		return HolidayRule.LABOR_DAY.getDate(year);
+	}
+
+	/**
+	 * Gives the ISO day of week (1 for Monday to 7 for Sunday) of an epoch day without creating a LocalDate.
+	 */
+	static int dayOfWeekOf(long epochDay) {
+		//Epoch day 0 (1970-01-01) was a Thursday.
+		return (int) Math.floorMod(epochDay + 3, 7L) + 1;
+	}
+
+	/**
+	 * Tests if an ISO day of week (1 for Monday to 7 for Sunday) is Saturday or Sunday.
+	 */
+	static boolean isWeekend(int dayOfWeek) {
+		return dayOfWeek >= 6;
+	}
 	
 	/**
 	 * Provides a way to initialize a Tool object by passing a CSV String. <br/> 
@@ -141,50 +210,17 @@ public class ToolRentalUtils {
 	 * For example: "Ladder,Werner,LADW,1.99,0,0".
 	 */
 	public static Tool validateAndCreateTool (String toolSpec) throws ToolRentalException{ 
-		//Ignore leading and trailing white spaces.
-		String trimmed = toolSpec.trim();
-		
-		/*
-		 * Validation rules: 
-		 * 1. there must be 6 items, all non-empty
-		 * 2. Numerical values must be valid decimals.
-		 * 
-		 */
-
-		String[] items = trimmed.split(",");
-		if(items.length != 6) {
-			throw new ToolRentalException (AppErrorMessage.INVALID_TOOL_SPEC + trimmed + ": Not enough data");
-		} 
-		String toolType = items[0].trim(); 
-		String brand = items[1].trim(); 
-		String toolCode = items[2].trim();
-		String weekdayRent = items[3].trim();
-		String weekendRent = items[4].trim();
-		String holidayRent = items[5].trim(); 		
-		
-		if(toolType == "" || brand == "" || toolCode == "" || weekdayRent == "" || weekendRent == "" || holidayRent == "") {
-			throw new ToolRentalException (AppErrorMessage.INVALID_TOOL_SPEC + trimmed + ": Not enough data");
-		} 
-		
-		double weekdayRentParsed = 0;
-		double weekendRentParsed = 0;
-		double holidayRentParsed = 0;
-		
-		try {
-			weekdayRentParsed = Double.parseDouble(weekdayRent); 
-			weekendRentParsed = Double.parseDouble(weekendRent);
-			holidayRentParsed = Double.parseDouble(holidayRent);
-		} catch (NumberFormatException e) {
-			throw new ToolRentalException (AppErrorMessage.INVALID_TOOL_SPEC + trimmed + ": Invalid Number");
-//			throw new ToolRentalException (": Invalid Number");
-		}
-		
-		//We have all data for a particular tool validated. Create the tool object.
-		//Note that while creating BigDecimal for a double value, it is better to use the 
-		//string representation of the double value than the double value itself.
-		ToolType ttype = new ToolType(toolType, new BigDecimal(weekdayRent), new BigDecimal(weekendRent), new BigDecimal(holidayRent));
-		
-		return new Tool(ttype, brand, toolCode);
+		return validateAndCreateTool(toolSpec, null);
+	}
+	
+	/**
+	 * Same as {@link #validateAndCreateTool(String)}, but the tool type and the brand are taken from a registry,
+	 * so that the tools with the same rate card or brand share one instance.
+	 * @param toolSpec specification for a tool.
+	 * @param registry registry of shared instances, or null to create new ones for this tool.
+	 */
+	public static Tool validateAndCreateTool (String toolSpec, ToolTypeRegistry registry) throws ToolRentalException{ 
+		return new ToolSpecParser(registry).parse(toolSpec);
 	} 
 	
 	/**
@@ -197,34 +233,43 @@ public class ToolRentalUtils {
 	}
 	
 	/**
-	 * Formats a date string as per specified format. An example format string could be "dd/MM/YYYY".
+	 * Formats a date with an already compiled date codec, such as the one of the application settings.
 	 * @param date
-	 * @param format
+	 * @param codec
 	 * @return formatted string, or if an error is encountered, returns the default format of the LocalDate.
 	 */
-	public static String formatDate(LocalDate date, String format) { 
-		DateTimeFormatter formatter = null;
-		String formatted = null;
-		
+	public static String formatDate(LocalDate date, DateCodec codec) {
 		//As formatting a date is not a critical operation, if an error is encountered, 
-		//simply catch the error and return a default formatted string.
+		//simply return a default formatted string.
 		//Do not exit the run time.
-		
-		try {
-			formatter = DateTimeFormatter.ofPattern(format);
-			if(formatter != null) {
-				formatted = formatter.format(date);
+		if(codec.isValid()) {
+			try {
+				return codec.format(date);
+			} catch (DateTimeException e) {
+				dateFormatFailed(codec.getPattern(), e.getMessage());
+				return date.toString();
 			}
-		} catch (Exception e) {
-			System.out.println("Date formatting failed. Message = " + e.getMessage());
 		}
-		
-		if(formatted != null) {
-			return formatted;
-		} else {
-			return date.toString();
+		dateFormatFailed(codec.getPattern(), codec.getError());
+		return date.toString();
+	}
+	
+	/**
+	 * Formats a date string as per specified format. An example format string could be "dd/MM/YYYY". <br/>
+	 * The format is compiled only the first time it is used.
+	 * @param date
+	 * @param format
+	 * @return formatted string, or if an error is encountered, returns the default format of the LocalDate.
+	 */
+	public static String formatDate(LocalDate date, String format) { 
+		return formatDate(date, DateCodec.get(format));
+	}
+	
+	private static void dateFormatFailed(String format, String message) {
+		CalculationTrace trace = ToolRentalAppConfig.getInstance().getCalculationTrace();
+		if(trace != null) {
+			trace.dateFormatFailed(format, message);
 		}
-		
 	}
 
 	
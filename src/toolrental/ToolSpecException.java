@@ -0,0 +1,24 @@
+package toolrental;
+
+/**
+ * Exception for a tool spec that is not valid, with the position of the error in the spec.
+ * @author Binod
+ *
+ */
+public class ToolSpecException extends ToolRentalException {
+
+	private final int position;
+
+	public ToolSpecException(String message, int position) {
+		super(message);
+		this.position = position;
+	}
+
+	/**
+	 * Gives the position of the error in the spec, starting from 0.
+	 * @return
+	 */
+	public int getPosition() {
+		return position;
+	}
+}
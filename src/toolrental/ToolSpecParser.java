@@ -0,0 +1,192 @@
+package toolrental;
+
+import java.math.BigDecimal;
+
+/**
+ * Parser of tool specs, in the format "toolType,brand,toolCode,weekDayDailyRent,weekendDailyRent,HolidayDailyRent". <br/>
+ * The spec is read in a single pass over its characters: fields are found by their indexes, without splitting the
+ * spec into substrings, and rents are parsed straight into fixed-point values. Strings are created only for the
+ * tool code, and for the tool type name and the brand when they are not shared already by the registry. <br/>
+ * White space around the spec and around each field is ignored. Rents are plain decimals such as 1.99, 0 or .5,
+ * with an optional sign. <br/>
+ * Errors give the position of the invalid character in the spec. <br/>
+ * A parser keeps the state of the spec being parsed, so it should be used by one thread at a time.
+ * @author Binod
+ *
+ */
+public class ToolSpecParser {
+
+	private static final int FIELD_COUNT = 6;
+	private static final int TOOL_TYPE = 0, BRAND = 1, TOOL_CODE = 2, WEEKDAY_RENT = 3, WEEKEND_RENT = 4, HOLIDAY_RENT = 5;
+	private static final String[] FIELD_NAMES = {
+			"tool type", "brand", "tool code", "weekday rent", "weekend rent", "holiday rent" };
+
+	//Largest unscaled value that can take one more digit without overflow.
+	private static final long MAX_BEFORE_DIGIT = (Long.MAX_VALUE - 9) / 10;
+
+	private final ToolTypeRegistry registry;
+
+	//Bounds of the fields of the spec being parsed, without white space.
+	private final int[] fieldStarts = new int[FIELD_COUNT];
+	private final int[] fieldEnds = new int[FIELD_COUNT];
+
+	//Rents of the spec being parsed, as unscaled values and scales, for the fields WEEKDAY_RENT to HOLIDAY_RENT.
+	private final long[] rents = new long[3];
+	private final int[] scales = new int[3];
+
+	public ToolSpecParser() {
+		this(null);
+	}
+
+	/**
+	 *
+	 * @param registry registry of shared tool types and strings, or null to create new ones for every tool.
+	 */
+	public ToolSpecParser(ToolTypeRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Parses a tool spec.
+	 * @param spec
+	 * @return
+	 * @throws ToolSpecException if the spec is not valid.
+	 */
+	public Tool parse(CharSequence spec) throws ToolSpecException {
+		return parse(spec, 0, spec.length());
+	}
+
+	/**
+	 * Parses a tool spec that is a part of a text, such as a line of a file.
+	 * @param text
+	 * @param start index of the first character of the spec.
+	 * @param end index after the last character of the spec.
+	 * @return
+	 * @throws ToolSpecException if the spec is not valid. Its position is relative to the start.
+	 */
+	public Tool parse(CharSequence text, int start, int end) throws ToolSpecException {
+		findFields(text, start, end);
+
+		//Rents that don't fit in a long are kept as BigDecimal. They are too large to be real, so such tools are not shared.
+		boolean fixedPoint = true;
+		for(int field = WEEKDAY_RENT; field <= HOLIDAY_RENT; field++) {
+			fixedPoint &= parseRent(text, start, end, field);
+		}
+
+		String code = text.subSequence(fieldStarts[TOOL_CODE], fieldEnds[TOOL_CODE]).toString();
+		if(registry == null) {
+			return new Tool(createToolType(text, fixedPoint, toString(text, TOOL_TYPE)), toString(text, BRAND), code);
+		}
+
+		String toolType = registry.intern(text, fieldStarts[TOOL_TYPE], fieldEnds[TOOL_TYPE]);
+		String brand = registry.intern(text, fieldStarts[BRAND], fieldEnds[BRAND]);
+		if(!fixedPoint) {
+			return new Tool(createToolType(text, false, toolType), brand, code);
+		}
+		return new Tool(registry.getToolType(toolType, rents[0], scales[0], rents[1], scales[1], rents[2], scales[2]),
+				brand, code);
+	}
+
+	/**
+	 * Finds the bounds of the six fields, checking that none is empty.
+	 */
+	private void findFields(CharSequence text, int start, int end) throws ToolSpecException {
+		int field = 0;
+		int fieldStart = start;
+		for(int i = start; i <= end; i++) {
+			if(i < end && text.charAt(i) != ',') {
+				continue;
+			}
+			if(field == FIELD_COUNT) {
+				throw error(text, start, end, "Too much data, " + FIELD_COUNT + " fields expected", fieldStart - 1);
+			}
+
+			//Ignore white space around the field, the same as String.trim().
+			int first = fieldStart;
+			int last = i;
+			while(first < last && text.charAt(first) <= ' ') {
+				first++;
+			}
+			while(last > first && text.charAt(last - 1) <= ' ') {
+				last--;
+			}
+			if(first == last) {
+				throw error(text, start, end, "Not enough data, " + FIELD_NAMES[field] + " is empty", fieldStart);
+			}
+			fieldStarts[field] = first;
+			fieldEnds[field] = last;
+			field++;
+			fieldStart = i + 1;
+		}
+		if(field < FIELD_COUNT) {
+			throw error(text, start, end, "Not enough data, " + FIELD_COUNT + " fields expected", end);
+		}
+	}
+
+	/**
+	 * Parses a rent field as an unscaled value and a scale.
+	 * @return false if the rent is valid but does not fit in a long.
+	 */
+	private boolean parseRent(CharSequence text, int start, int end, int field) throws ToolSpecException {
+		int i = fieldStarts[field];
+		int last = fieldEnds[field];
+		boolean negative = false;
+		char c = text.charAt(i);
+		if(c == '+' || c == '-') {
+			negative = c == '-';
+			i++;
+		}
+
+		long unscaled = 0;
+		int scale = 0;
+		int digitCount = 0;
+		boolean point = false;
+		boolean overflow = false;
+		for(; i < last; i++) {
+			c = text.charAt(i);
+			if(c >= '0' && c <= '9') {
+				if(unscaled > MAX_BEFORE_DIGIT) {
+					overflow = true;
+				}
+				unscaled = unscaled * 10 + (c - '0');
+				digitCount++;
+				if(point) {
+					scale++;
+				}
+			} else if(c == '.' && !point) {
+				point = true;
+			} else {
+				throw error(text, start, end, "Invalid Number in " + FIELD_NAMES[field], i);
+			}
+		}
+		if(digitCount == 0) {
+			throw error(text, start, end, "Invalid Number in " + FIELD_NAMES[field], fieldStarts[field]);
+		}
+
+		rents[field - WEEKDAY_RENT] = negative ? -unscaled : unscaled;
+		scales[field - WEEKDAY_RENT] = scale;
+		return !overflow;
+	}
+
+	private ToolType createToolType(CharSequence text, boolean fixedPoint, String toolType) {
+		return new ToolType(toolType, rent(text, fixedPoint, WEEKDAY_RENT), rent(text, fixedPoint, WEEKEND_RENT),
+				rent(text, fixedPoint, HOLIDAY_RENT));
+	}
+
+	private BigDecimal rent(CharSequence text, boolean fixedPoint, int field) {
+		if(fixedPoint) {
+			return BigDecimal.valueOf(rents[field - WEEKDAY_RENT], scales[field - WEEKDAY_RENT]);
+		}
+		return new BigDecimal(toString(text, field));
+	}
+
+	private String toString(CharSequence text, int field) {
+		return text.subSequence(fieldStarts[field], fieldEnds[field]).toString();
+	}
+
+	private static ToolSpecException error(CharSequence text, int start, int end, String reason, int position) {
+		String spec = text.subSequence(start, end).toString().trim();
+		return new ToolSpecException(AppErrorMessage.INVALID_TOOL_SPEC + spec + ": " + reason
+				+ " at position " + (position - start), position - start);
+	}
+}
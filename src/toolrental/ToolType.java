@@ -24,6 +24,13 @@ public class ToolType {
 	//are superfluous because they can be derived from the xxxRent variables.
 	//Still keeping them separate for more clarity. 
 	
+	//Daily rents as fixed-point rate units, for the integer arithmetic in FixedPointPricing.
+	//Only valid if fixedPointRents is true, that is, if no rent has more than FixedPointPricing.RATE_SCALE decimal digits.
+	private long weekdayRentUnits;
+	private long weekendRentUnits;
+	private long holidayRentUnits;
+	private boolean fixedPointRents = false;
+	
 	public ToolType(String toolTtype, BigDecimal weekdayRent, BigDecimal weekendRent, BigDecimal holidayRent) {
 		this.toolTtype = toolTtype;
 		this.weekdayRent = weekdayRent;
@@ -40,6 +47,15 @@ public class ToolType {
 		if(holidayRent.compareTo(BigDecimal.ZERO) == 1) {
 			this.chargedHoliday = true;
 		}
+		
+		try {
+			this.weekdayRentUnits = FixedPointPricing.toRateUnits(weekdayRent);
+			this.weekendRentUnits = FixedPointPricing.toRateUnits(weekendRent);
+			this.holidayRentUnits = FixedPointPricing.toRateUnits(holidayRent);
+			this.fixedPointRents = true;
+		} catch (ArithmeticException e) {
+			//Rent can't be represented exactly, so it will be calculated with BigDecimal only.
+		}
 	} 
 	
 	public String getToolTtype() {
@@ -70,6 +86,26 @@ public class ToolType {
 		return chargedHoliday;
 	} 
 	
+	/**
+	 * Tells if the daily rents can be calculated with fixed-point integer arithmetic.
+	 * @return
+	 */
+	public boolean hasFixedPointRents() {
+		return fixedPointRents;
+	}
+	
+	public long getWeekdayRentUnits() {
+		return weekdayRentUnits;
+	}
+	
+	public long getWeekendRentUnits() {
+		return weekendRentUnits;
+	}
+	
+	public long getHolidayRentUnits() {
+		return holidayRentUnits;
+	}
+	
 	@Override
 	public boolean equals(Object obj) {  
 		//Equality is based on toolTtype property.
@@ -0,0 +1,295 @@
+package toolrental;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of shared instances for the inventory load. <br/>
+ * Many tools of a large inventory have the same tool type and rents, and the same brand. Instead of keeping a
+ * {@link ToolType} with its three rents for every tool, all the tools with the same rate card share one instance,
+ * and repeated type and brand strings share one string. <br/>
+ * The registry is safe to use from several threads. It keeps its instances through weak references, so tools
+ * loaded at different times still share them, but an instance is dropped once no tool uses it, for example the
+ * rate card of a price replaced by a reload or a delta.
+ * @author Binod
+ *
+ */
+public class ToolTypeRegistry {
+
+	//Approximate heap size, in bytes, of a ToolType with its three BigDecimal rents, on a 64 bit JVM with compressed references.
+	static final int TOOL_TYPE_SIZE = 56 + 3 * 40;
+	//Approximate heap size of a string without its characters: the String and the header of its array.
+	static final int STRING_OVERHEAD = 24 + 16;
+
+	private final ConcurrentMap<RateCard, SharedRef<ToolType>> toolTypes = new ConcurrentHashMap<RateCard, SharedRef<ToolType>>();
+	private final ConcurrentMap<Text, SharedRef<String>> strings = new ConcurrentHashMap<Text, SharedRef<String>>();
+	//Instances no tool uses any more, to remove from the maps.
+	private final ReferenceQueue<Object> unused = new ReferenceQueue<Object>();
+
+	private final LongAdder sharedToolTypeCount = new LongAdder();
+	private final LongAdder sharedStringCount = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+
+	/**
+	 * Gives the shared tool type for a rate card, creating it the first time. <br/>
+	 * Each rent is given as an unscaled value and a scale, as in {@link BigDecimal#valueOf(long, int)}.
+	 * Rents are compared with their scale, so 2.99 and 2.990 are different rate cards, just like the
+	 * BigDecimal rents they give.
+	 * @param toolType name of the tool type, already shared.
+	 * @return
+	 */
+	ToolType getToolType(String toolType, long weekdayRent, int weekdayScale, long weekendRent, int weekendScale,
+			long holidayRent, int holidayScale) {
+		removeUnused();
+		RateCard rateCard = new RateCard(toolType, weekdayRent, weekdayScale, weekendRent, weekendScale, holidayRent, holidayScale);
+		ToolType shared = get(toolTypes, rateCard);
+		if(shared == null) {
+			ToolType created = new ToolType(toolType, BigDecimal.valueOf(weekdayRent, weekdayScale),
+					BigDecimal.valueOf(weekendRent, weekendScale), BigDecimal.valueOf(holidayRent, holidayScale));
+			shared = put(toolTypes, rateCard, created);
+			if(shared == created) {
+				return created;
+			}
+			//Another thread created the same rate card first.
+		}
+		sharedToolTypeCount.increment();
+		bytesSaved.add(TOOL_TYPE_SIZE);
+		return shared;
+	}
+
+	/**
+	 * Gives the shared instance of a string, such as a brand or a tool type name.
+	 * @param value
+	 * @return a string equal to the value.
+	 */
+	public String intern(String value) {
+		removeUnused();
+		String shared = get(strings, new Text(value, 0, value.length()));
+		if(shared == null) {
+			shared = put(strings, textKey(value), value);
+		}
+		if(shared != value) {
+			sharedStringCount.increment();
+			bytesSaved.add(STRING_OVERHEAD + value.length());
+		}
+		return shared;
+	}
+
+	/**
+	 * Gives the shared instance of a part of a text. A new string is created only the first time.
+	 * @param text
+	 * @param start index of the first character.
+	 * @param end index after the last character.
+	 * @return a string equal to the part of the text.
+	 */
+	public String intern(CharSequence text, int start, int end) {
+		removeUnused();
+		String shared = get(strings, new Text(text, start, end));
+		if(shared == null) {
+			String value = text.subSequence(start, end).toString();
+			shared = put(strings, textKey(value), value);
+			if(shared == value) {
+				return value;
+			}
+		}
+		sharedStringCount.increment();
+		bytesSaved.add(STRING_OVERHEAD + end - start);
+		return shared;
+	}
+
+	/**
+	 * Gives the number of distinct rate cards, that is, of tool type instances kept.
+	 * Tool types no tool uses any more are counted until the garbage collector clears them.
+	 * @return
+	 */
+	public int getToolTypeCount() {
+		removeUnused();
+		return toolTypes.size();
+	}
+
+	/**
+	 * Gives the number of times an existing tool type was given instead of a new one.
+	 * @return
+	 */
+	public long getSharedToolTypeCount() {
+		return sharedToolTypeCount.sum();
+	}
+
+	/**
+	 * Gives the number of times an existing string was given instead of a new one.
+	 * @return
+	 */
+	public long getSharedStringCount() {
+		return sharedStringCount.sum();
+	}
+
+	/**
+	 * Gives an estimate of the heap memory saved by the shared instances, in bytes. <br/>
+	 * It assumes a 64 bit JVM with compressed references and one byte per character, so it is only an approximation.
+	 * @return
+	 */
+	public long getEstimatedBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	private static <K, T> T get(ConcurrentMap<K, SharedRef<T>> map, K key) {
+		SharedRef<T> ref = map.get(key);
+		return ref == null ? null : ref.get();
+	}
+
+	/**
+	 * Shares an instance, unless an equal one is already shared.
+	 * @return the instance shared.
+	 */
+	private <K, T> T put(ConcurrentMap<K, SharedRef<T>> map, K key, T value) {
+		SharedRef<T> newRef = new SharedRef<T>(value, key, unused);
+		while(true) {
+			SharedRef<T> ref = map.putIfAbsent(key, newRef);
+			if(ref == null) {
+				return value;
+			}
+			T shared = ref.get();
+			if(shared != null) {
+				return shared;
+			}
+			//Cleared but not removed yet.
+			if(map.replace(key, ref, newRef)) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Removes the instances cleared by the garbage collector from the maps.
+	 */
+	private void removeUnused() {
+		Reference<?> ref;
+		while((ref = unused.poll()) != null) {
+			Object key = ((SharedRef<?>) ref).key;
+			if(key instanceof RateCard) {
+				toolTypes.remove(key, ref);
+			} else {
+				strings.remove(key, ref);
+			}
+		}
+	}
+
+	/**
+	 * Key of a shared string, that does not keep the string itself alive.
+	 */
+	private static Text textKey(String value) {
+		return new Text(new String(value), 0, value.length());
+	}
+
+	/**
+	 * Weak reference to a shared instance, with its key to remove it from its map once cleared.
+	 */
+	private static final class SharedRef<T> extends WeakReference<T> {
+		private final Object key;
+
+		SharedRef(T value, Object key, ReferenceQueue<Object> queue) {
+			super(value, queue);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Tool type name and rents, as unscaled values and scales.
+	 */
+	private static final class RateCard {
+		private final String toolType;
+		private final long weekdayRent, weekendRent, holidayRent;
+		private final int weekdayScale, weekendScale, holidayScale;
+		private final int hash;
+
+		RateCard(String toolType, long weekdayRent, int weekdayScale, long weekendRent, int weekendScale,
+				long holidayRent, int holidayScale) {
+			this.toolType = toolType;
+			this.weekdayRent = weekdayRent;
+			this.weekdayScale = weekdayScale;
+			this.weekendRent = weekendRent;
+			this.weekendScale = weekendScale;
+			this.holidayRent = holidayRent;
+			this.holidayScale = holidayScale;
+
+			int result = toolType.hashCode();
+			result = 31 * result + Long.hashCode(weekdayRent);
+			result = 31 * result + weekdayScale;
+			result = 31 * result + Long.hashCode(weekendRent);
+			result = 31 * result + weekendScale;
+			result = 31 * result + Long.hashCode(holidayRent);
+			result = 31 * result + holidayScale;
+			this.hash = result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RateCard))
+				return false;
+			RateCard other = (RateCard) obj;
+			return hash == other.hash
+					&& weekdayRent == other.weekdayRent && weekdayScale == other.weekdayScale
+					&& weekendRent == other.weekendRent && weekendScale == other.weekendScale
+					&& holidayRent == other.holidayRent && holidayScale == other.holidayScale
+					&& toolType.equals(other.toolType);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * Part of a text, compared by its characters. It has the same hash code as the equal string, so that
+	 * strings can be looked up without creating them.
+	 */
+	private static final class Text {
+		private final CharSequence text;
+		private final int start;
+		private final int end;
+		private final int hash;
+
+		Text(CharSequence text, int start, int end) {
+			this.text = text;
+			this.start = start;
+			this.end = end;
+
+			int result = 0;
+			for(int i = start; i < end; i++) {
+				result = 31 * result + text.charAt(i);
+			}
+			this.hash = result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Text))
+				return false;
+			Text other = (Text) obj;
+			if(hash != other.hash || end - start != other.end - other.start) {
+				return false;
+			}
+			for(int i = 0; i < end - start; i++) {
+				if(text.charAt(start + i) != other.text.charAt(other.start + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
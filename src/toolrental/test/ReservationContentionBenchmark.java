@@ -0,0 +1,105 @@
+package toolrental.test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import toolrental.Reservation;
+import toolrental.ReservationConflictException;
+import toolrental.ReservationLedger;
+
+/**
+ * Measures the throughput of the reservation ledger when many checkout terminals book tools at the same time. <br/>
+ * Each thread books orders of one to three random tools for a few random days and releases them, as
+ * a checkout followed by a return. The ledger with a single lock is compared with the striped ledger,
+ * for 1, 2, 4... threads up to the number of cores. <br/>
+ * Not part of the test suite, run it with: java toolrental.test.ReservationContentionBenchmark [tool count] [seconds per run]
+ * @author Binod
+ *
+ */
+public class ReservationContentionBenchmark {
+
+	private static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+	private static final int DAYS = 365;
+
+	public static void main(String[] args) throws InterruptedException {
+		int toolCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		String[] toolCodes = new String[toolCount];
+		for(int i = 0; i < toolCount; i++) {
+			toolCodes[i] = String.format("T%05d", i);
+		}
+
+		System.out.println("Tools: " + toolCount + ", cores: " + cores + ", " + seconds + "s per run");
+		System.out.println(String.format("%8s %18s %18s", "threads", "single lock op/s", "striped op/s"));
+		//Warm up both ledgers before measuring.
+		run(new ReservationLedger(1), toolCodes, cores, 1);
+		run(new ReservationLedger(), toolCodes, cores, 1);
+		for(int threads = 1; ; threads *= 2) {
+			threads = Math.min(threads, cores);
+			long single = run(new ReservationLedger(1), toolCodes, threads, seconds);
+			long striped = run(new ReservationLedger(), toolCodes, threads, seconds);
+			System.out.println(String.format("%8d %18d %18d", threads, single / seconds, striped / seconds));
+			if(threads == cores) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Books and releases orders from several threads for a while.
+	 * @return the number of orders booked or refused.
+	 */
+	private static long run(final ReservationLedger ledger, final String[] toolCodes, int threads, int seconds)
+			throws InterruptedException {
+		final LongAdder orders = new LongAdder();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] end = new long[1];
+		List<Thread> workers = new ArrayList<Thread>();
+		for(int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					List<Reservation> order = new ArrayList<Reservation>(3);
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long count = 0;
+					while(System.nanoTime() < end[0]) {
+						order.clear();
+						int tools = 1 + random.nextInt(3);
+						for(int j = 0; j < tools; j++) {
+							LocalDate checkoutDate = FIRST_DAY.plusDays(random.nextInt(DAYS));
+							order.add(new Reservation(toolCodes[random.nextInt(toolCodes.length)], checkoutDate,
+									checkoutDate.plusDays(random.nextInt(7))));
+						}
+						try {
+							ledger.reserveAll(order);
+							ledger.releaseAll(order);
+						} catch (ReservationConflictException e) {
+							//Refused orders are part of the load.
+						}
+						count++;
+					}
+					orders.add(count);
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		end[0] = System.nanoTime() + seconds * 1000000000L;
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		return orders.sum();
+	}
+}
@@ -2,23 +2,51 @@ package toolrental.test;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.junit.Rule;
 
+import toolrental.AgreementArchiver;
+import toolrental.AgreementTemplate;
 import toolrental.AppErrorMessage;
+import toolrental.AsyncCalculationTraceWriter;
 import toolrental.Checkout;
+import toolrental.CheckoutBatchException;
 import toolrental.CheckoutData;
+import toolrental.CustomerInfo;
+import toolrental.DateCodec;
+import toolrental.RentalAgreement;
+import toolrental.Reservation;
+import toolrental.ReservationConflictException;
+import toolrental.ReservationLedger;
+import toolrental.StoreInfo;
 import toolrental.Tool;
+import toolrental.ToolRentalAppConfig;
 import toolrental.ToolRentalException;
 import toolrental.ToolRentalUtils;
 import toolrental.ToolType;
 
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Test code to implement the checkout routine. Tests are included for the six scenarios mentioned at the end of the spec document.
@@ -29,6 +57,9 @@ public class TestCheckout {
 	
     @Rule
     public ExpectedException thrown = ExpectedException.none();
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
 	@Test
 	public void TestForScenario1() throws ToolRentalException {
@@ -302,5 +333,479 @@ public class TestCheckout {
 		
 		checkout.createAgreement();
 	} 	
-
+	
+	@Test
+	public void TestCalculationTrace() throws ToolRentalException, InterruptedException {
+		//The calculation details are written to the trace, from the trace writer thread.
+		
+		StringBuilder traceOutput = new StringBuilder();
+		AsyncCalculationTraceWriter trace = new AsyncCalculationTraceWriter(traceOutput);
+		ToolRentalAppConfig.getInstance().setCalculationTrace(trace);
+		
+		try {
+			Tool myRentalTool = ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0");
+			CheckoutData data = new CheckoutData(myRentalTool, 3, 10, LocalDate.of(2020, 7, 2));
+			ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+			toolList.add(data);
+			new Checkout(toolList).doCheckout();
+		} finally {
+			ToolRentalAppConfig.getInstance().setCalculationTrace(null);
+			trace.close();
+		}
+		
+		//Same amounts as in scenario 2.
+		String traceLine = traceOutput.toString();
+		assertTrue(traceLine.startsWith("toolCode = LADW, weekDays = 0, weekendDays = 2, holidays = 1, discountPercent = 10"));
+		assertTrue(traceLine.contains("grossRentAmount = 3.98, discountAmount = 0.40, netRentAmount = 3.58"));
+		assertEquals(0, trace.getDroppedCount());
+	}
+	
+	@Test
+	public void TestParallelCheckout() throws ToolRentalException {
+		//Large order, well above Checkout.PARALLEL_THRESHOLD, calculated in parallel. Every 50th tool has an invalid discount percent.
+		
+		Tool myRentalTool = ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0");
+		ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+		for(int i = 0; i < 1000; i++) {
+			toolList.add(new CheckoutData(myRentalTool, 4, i % 50 == 7 ? 101 : 50, LocalDate.of(2020, 7, 2)));
+		}
+		
+		try {
+			new Checkout(toolList).doCheckoutParallel();
+			fail("Checkout should fail for the tools with invalid discount percent");
+		} catch (CheckoutBatchException e) {
+			//All failures are collected, in the order of the tools.
+			assertEquals(20, e.getFailures().size());
+			for(int i = 0; i < e.getFailures().size(); i++) {
+				assertEquals(i * 50 + 7, e.getFailures().get(i).getIndex());
+				assertEquals(AppErrorMessage.INVALID_DISCOUNT_PERCENT, e.getFailures().get(i).getException().getMessage());
+			}
+		}
+		
+		//All other tools are calculated, same as scenario 6.
+		for(int i = 0; i < toolList.size(); i++) {
+			if(i % 50 != 7) {
+				assertEquals(new BigDecimal("1.49"), toolList.get(i).getNetRentAmount());
+			}
+		}
+	}
+	
+	@Test
+	public void TestMixedRentalPeriods() throws ToolRentalException {
+		//Tools of an order with different rental periods each get the day counts of their own period,
+		//even though the days are counted only once per distinct period.
+		
+		Tool ladder = ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0");
+		Tool chainsaw = ToolRentalUtils.validateAndCreateTool("Chainsaw,Stihl,CHNS,1.49,0,1.49");
+		ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+		for(int i = 0; i < 10; i++) {
+			//Same as scenarios 2 and 3.
+			toolList.add(new CheckoutData(ladder, 3, 10, LocalDate.of(2020, 7, 2)));
+			toolList.add(new CheckoutData(chainsaw, 5, 25, LocalDate.of(2015, 7, 2)));
+		}
+		
+		new Checkout(toolList).doCheckout();
+		
+		for(int i = 0; i < toolList.size(); i += 2) {
+			assertEquals(new BigDecimal("3.58"), toolList.get(i).getNetRentAmount());
+			assertEquals(2, toolList.get(i).getDaysCharged());
+			assertEquals(new BigDecimal("3.35"), toolList.get(i + 1).getNetRentAmount());
+			assertEquals(3, toolList.get(i + 1).getDaysCharged());
+		}
+	}
+	
+	@Test
+	public void agreementIsWrittenOnce() throws Exception {
+		//Each section of the agreement is written once, whatever the number of tools.
+		ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+		toolList.add(new CheckoutData(ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"), 3, 10, LocalDate.of(2020, 7, 2)));
+		toolList.add(new CheckoutData(ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0"), 4, 50, LocalDate.of(2020, 7, 2)));
+		Checkout checkout = new Checkout(toolList);
+		checkout.doCheckout();
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		checkout.createAgreement(bytes);
+		String agreement = new String(bytes.toByteArray(), ToolRentalAppConfig.getInstance().getAgreementTemplate().getCharset());
+		assertEquals(agreement.indexOf("TOOL RENTAL INC."), agreement.lastIndexOf("TOOL RENTAL INC."));
+		assertEquals(agreement.indexOf("Tool #1"), agreement.lastIndexOf("Tool #1"));
+		assertTrue(agreement.indexOf("Tool #2") > agreement.indexOf("Tool #1"));
+		assertTrue(agreement.contains("Check Out Date: 07/02/20"));
+		assertTrue(agreement.contains("Final Charge: $3.58"));
+		
+		//Writers and streams get the same text.
+		DateCodec dateCodec = DateCodec.get("MM/dd/yy");
+		AgreementTemplate template = AgreementTemplate.getDefault();
+		StoreInfo store = new StoreInfo("Store", Arrays.asList("Street"), "555");
+		CustomerInfo customer = new CustomerInfo("Customer", Arrays.asList("Road"));
+		RentalAgreement renderer = new RentalAgreement();
+		StringWriter writer = new StringWriter();
+		renderer.appendRentalAgreement(template, store, customer, toolList, dateCodec, writer);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		renderer.writeRentalAgreement(template, store, customer, toolList, dateCodec, out);
+		assertEquals(writer.toString(), new String(out.toByteArray(), template.getCharset()));
+	}
+	
+	@Test
+	public void agreementLayout() throws Exception {
+		//The built-in layout. Each tool starts on its own line, after the closing line of the previous tool.
+		ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+		toolList.add(new CheckoutData(ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"), 3, 10, LocalDate.of(2020, 7, 2)));
+		toolList.add(new CheckoutData(ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0"), 4, 50, LocalDate.of(2020, 7, 2)));
+		new Checkout(toolList, null, null).doCheckout();
+		
+		String n = System.lineSeparator();
+		String expected = "Store" + n
+				+ "Street" + n
+				+ "phone: 555" + n
+				+ n
+				+ n
+				+ "Customer:" + n
+				+ "Customer" + n
+				+ "Road" + n
+				+ "City" + n
+				+ n
+				+ n
+				+ "Thank you for renting the tool(s) from our store. " + n
+				+ "Details are below:" + n
+				+ "Tool #1" + n
+				+ "================" + n
+				+ "Tool Code: LADW" + n
+				+ "Tool Type: Ladder" + n
+				+ "Tool Brand: Werner" + n
+				+ "Rental Days: 3" + n
+				+ "Check Out Date: 07/02/20" + n
+				+ "Due Date: 07/05/20" + n
+				+ "Daily rental charge rate: weekdays - $1.99, weekends -$1.99, holidays - $0" + n
+				+ "Charge Days (Days actually charged): weekdays - 0, weekends -2, holidays - 0" + n
+				+ "Pre-discount charge: $3.98" + n
+				+ "Discount percent: 10%" + n
+				+ "Discount Amount: $0.40" + n
+				+ "Final Charge: $3.58" + n
+				+ "================" + n
+				+ "Tool #2" + n
+				+ "================" + n
+				+ "Tool Code: JAKR" + n
+				+ "Tool Type: Jackhammer" + n
+				+ "Tool Brand: Ridgid" + n
+				+ "Rental Days: 4" + n
+				+ "Check Out Date: 07/02/20" + n
+				+ "Due Date: 07/06/20" + n
+				+ "Daily rental charge rate: weekdays - $2.99, weekends -$0, holidays - $0" + n
+				+ "Charge Days (Days actually charged): weekdays - 1, weekends -0, holidays - 0" + n
+				+ "Pre-discount charge: $2.99" + n
+				+ "Discount percent: 50%" + n
+				+ "Discount Amount: $1.50" + n
+				+ "Final Charge: $1.49" + n
+				+ "================" + n;
+		
+		StringBuilder text = new StringBuilder();
+		new RentalAgreement().appendRentalAgreement(AgreementTemplate.getDefault(), new StoreInfo("Store", Arrays.asList("Street"), "555"), 
+				new CustomerInfo("Customer", Arrays.asList("Road", "City")), toolList, DateCodec.get("MM/dd/yy"), text);
+		assertEquals(expected, text.toString());
+	}
+	
+	@Test
+	public void agreementAfterFailedWrite() throws Exception {
+		ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+		toolList.add(new CheckoutData(ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"), 3, 10, LocalDate.of(2020, 7, 2)));
+		toolList.add(new CheckoutData(ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0"), 4, 50, LocalDate.of(2020, 7, 2)));
+		new Checkout(toolList, null, null).doCheckout();
+		DateCodec dateCodec = DateCodec.get("MM/dd/yy");
+		AgreementTemplate template = AgreementTemplate.getDefault();
+		StoreInfo store = new StoreInfo("Store", Arrays.asList("Street"), "555");
+		CustomerInfo customer = new CustomerInfo("Customer", Arrays.asList("Road"));
+		StringBuilder expected = new StringBuilder();
+		new RentalAgreement().appendRentalAgreement(template, store, customer, toolList, dateCodec, expected);
+		
+		//The second section can't be written, and is left in the renderer.
+		RentalAgreement renderer = new RentalAgreement();
+		Writer failing = new Writer() {
+			private int writes = 0;
+			
+			@Override
+			public void write(char[] chars, int offset, int length) throws IOException {
+				if(++writes == 2) {
+					throw new IOException("Disconnected");
+				}
+			}
+			
+			@Override
+			public void flush() {
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+		try {
+			renderer.appendRentalAgreement(template, store, customer, toolList, dateCodec, failing);
+			fail("The writer failed");
+		} catch (IOException e) {
+			assertEquals("Disconnected", e.getMessage());
+		}
+		
+		//The next agreement of the renderer has nothing of the failed one.
+		StringBuilder text = new StringBuilder();
+		renderer.appendRentalAgreement(template, store, customer, toolList, dateCodec, text);
+		assertEquals(expected.toString(), text.toString());
+	}
+	
+	@Test
+	public void agreementTemplate() throws Exception {
+		//Stores can change the layout without code changes.
+		String layout = "# Short layout\n"
+				+ "[store]\n${store.name} (${store.phone})\n"
+				+ "[header]\n${store}\n"
+				+ "[tool]\n${tool.number}. ${tool.code} ${checkout.date} - ${due.date}: $${charge.net}\n"
+				+ "[footer]\nThank you, ${customer}\n"
+				+ "[customer]\n${customer.name}\n";
+		AgreementTemplate template = AgreementTemplate.parse(layout, StandardCharsets.UTF_8);
+		ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+		toolList.add(new CheckoutData(ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"), 3, 10, LocalDate.of(2020, 7, 2)));
+		new Checkout(toolList).doCheckout();
+		
+		StoreInfo store = new StoreInfo("Store", Arrays.asList("Street"), "555");
+		CustomerInfo customer = new CustomerInfo("Zo\u00eb", Arrays.asList("Street"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new RentalAgreement().writeRentalAgreement(template, store, customer, toolList, DateCodec.get("yyyy-MM-dd"), out);
+		String newLine = System.lineSeparator();
+		assertEquals("Store (555)" + newLine + newLine 
+				+ "1. LADW 2020-07-02 - 2020-07-05: $3.58" + newLine 
+				+ "Thank you, Zo\u00eb" + newLine + newLine, 
+				new String(out.toByteArray(), StandardCharsets.UTF_8));
+		
+		//An Appendable gets the same layout, decoded from the charset of the template.
+		StringBuilder text = new StringBuilder();
+		new RentalAgreement().appendRentalAgreement(template, store, customer, toolList, DateCodec.get("yyyy-MM-dd"), text);
+		assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), text.toString());
+		
+		//Fields are checked when the template is parsed.
+		thrown.expect(ToolRentalException.class);
+		thrown.expectMessage(AppErrorMessage.INVALID_AGREEMENT_TEMPLATE + "Unknown field ${tool.code} in section [header]");
+		AgreementTemplate.parse("[header]\n${tool.code}\n[tool]\n", StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void agreementUsesConsoleCharset() throws Exception {
+		//The console has another charset than the template. Raw bytes of the template would be garbled.
+		AgreementTemplate template = AgreementTemplate.parse("[customer]\n${customer.name}\n[header]\n${customer}\n[tool]\n${tool.code}\n", 
+				StandardCharsets.UTF_8);
+		ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+		toolList.add(new CheckoutData(ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"), 3, 10, LocalDate.of(2020, 7, 2)));
+		new Checkout(toolList, null, null).doCheckout();
+		
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		PrintStream systemOut = System.out;
+		System.setOut(new PrintStream(console, true, "UTF-16BE"));
+		try {
+			new RentalAgreement().printRentalAgreement(template, new StoreInfo("Store", Arrays.asList("Street"), "555"), 
+					new CustomerInfo("Zo\u00eb", Arrays.asList("Road")), toolList, DateCodec.get("MM/dd/yy"));
+		} finally {
+			System.setOut(systemOut);
+		}
+		String newLine = System.lineSeparator();
+		assertEquals("Zo\u00eb" + newLine + newLine + "LADW" + newLine, new String(console.toByteArray(), "UTF-16BE"));
+	}
+	
+	@Test
+	public void archiveAgreements() throws Exception {
+		//Small segments, so that the agreements are spread over several segment files.
+		Path directory = folder.newFolder("agreements").toPath();
+		AgreementArchiver archiver = new AgreementArchiver(directory, 1000, 16);
+		List<Future<Void>> done = new ArrayList<Future<Void>>();
+		for(int i = 0; i < 50; i++) {
+			done.add(archiver.archive("checkout-" + i, ("Agreement " + i + " " + new String(new char[i * 10]).replace('\0', '=')).getBytes(StandardCharsets.UTF_8)));
+		}
+		for(Future<Void> future : done) {
+			future.get();
+		}
+		assertEquals(50, archiver.getArchivedCount());
+		assertTrue(new String(archiver.read("checkout-7"), StandardCharsets.UTF_8).startsWith("Agreement 7 ==="));
+		assertNull(archiver.read("checkout-50"));
+		archiver.close();
+		assertTrue(directory.toFile().list().length > 1);
+		
+		//The index is rebuilt when the archive is opened again, and a record cut short by a crash is removed.
+		File[] segments = directory.toFile().listFiles();
+		Arrays.sort(segments);
+		Files.write(segments[segments.length - 1].toPath(), new byte[] {0, 0, 0, 5, 0, 0, 1, 0}, StandardOpenOption.APPEND);
+		archiver = new AgreementArchiver(directory, 1000, 16);
+		assertEquals(50, archiver.getArchivedCount());
+		assertTrue(new String(archiver.read("checkout-49"), StandardCharsets.UTF_8).startsWith("Agreement 49 ==="));
+		archiver.archive("checkout-50", "Agreement 50".getBytes(StandardCharsets.UTF_8)).get();
+		assertEquals("Agreement 50", new String(archiver.read("checkout-50"), StandardCharsets.UTF_8));
+		archiver.close();
+		//Nothing is queued once closed, it would never be written.
+		try {
+			archiver.archive("checkout-51", "Agreement 51".getBytes(StandardCharsets.UTF_8));
+			fail("The archiver is closed");
+		} catch (IllegalStateException e) {
+			//Expected.
+		}
+	}
+	
+	@Test
+	public void archiveCorruptionKeepsData() throws Exception {
+		Path directory = folder.newFolder("corrupted").toPath();
+		AgreementArchiver archiver = new AgreementArchiver(directory, 1000, 16);
+		for(int i = 0; i < 30; i++) {
+			archiver.archive("checkout-" + i, ("Agreement " + i + " " + new String(new char[100]).replace('\0', '=')).getBytes(StandardCharsets.UTF_8)).get();
+		}
+		archiver.close();
+		File[] segments = directory.toFile().listFiles();
+		Arrays.sort(segments);
+		assertTrue(segments.length > 2);
+		
+		//A bad length in the second record of the first segment, and a record cut short in the middle one.
+		byte[] first = Files.readAllBytes(segments[0].toPath());
+		int secondRecord = 16 + "checkout-0".length() + "Agreement 0 ".length() + 100;
+		first[secondRecord + 5] ^= 0x40;
+		Files.write(segments[0].toPath(), first);
+		Files.write(segments[1].toPath(), new byte[] {0, 0, 0, 5}, StandardOpenOption.APPEND);
+		long middleSize = segments[1].length();
+		
+		archiver = new AgreementArchiver(directory, 1000, 16);
+		assertEquals(2, archiver.getIndexErrors().size());
+		//Nothing is removed: only the first agreement of the first segment is indexed, the others are still on disk.
+		assertEquals(first.length, segments[0].length());
+		assertEquals(middleSize, segments[1].length());
+		assertEquals("Agreement 0", new String(archiver.read("checkout-0"), StandardCharsets.UTF_8).substring(0, 11));
+		assertNull(archiver.read("checkout-1"));
+		assertNotNull(archiver.read("checkout-29"));
+		archiver.close();
+	}
+	
+	@Test
+	public void reserveTools() throws Exception {
+		ReservationLedger ledger = new ReservationLedger();
+		Tool jackhammer = ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0");
+		Tool ladder = ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0");
+		
+		//Booked from 07/02/20 to the due date 07/06/20.
+		Checkout first = new Checkout(Arrays.asList(new CheckoutData(jackhammer, 4, 0, LocalDate.of(2020, 7, 2))), null, ledger);
+		first.doCheckout();
+		assertEquals(1, first.getReservations().size());
+		assertFalse(ledger.isAvailable("jakr", LocalDate.of(2020, 7, 6), LocalDate.of(2020, 7, 10)));
+		assertTrue(ledger.isAvailable("JAKR", LocalDate.of(2020, 7, 7), LocalDate.of(2020, 7, 10)));
+		assertEquals(1, ledger.getOverlapping("JAKR", LocalDate.of(2020, 6, 1), LocalDate.of(2020, 7, 2)).size());
+		
+		//An order is booked all or nothing: the ladder is free, but not the jackhammer.
+		Checkout second = new Checkout(Arrays.asList(new CheckoutData(ladder, 3, 0, LocalDate.of(2020, 7, 2)), 
+				new CheckoutData(jackhammer, 3, 0, LocalDate.of(2020, 7, 5))), null, ledger);
+		try {
+			second.doCheckout();
+			fail("The jackhammer is already rented");
+		} catch (ReservationConflictException e) {
+			assertEquals(1, e.getIndex());
+			assertEquals(LocalDate.of(2020, 7, 2), e.getConflict().getCheckoutDate());
+		}
+		assertTrue(ledger.isAvailable("LADW", LocalDate.of(2020, 7, 2), LocalDate.of(2020, 7, 5)));
+		assertEquals(1, ledger.getReservationCount());
+		
+		//Once the first checkout is canceled, the second one can be booked.
+		first.releaseReservations();
+		second.doCheckout();
+		assertEquals(2, ledger.getReservationCount());
+		
+		//Running the checkout again books its tools again, instead of conflicting with its own bookings.
+		second.doCheckout();
+		second.doCheckoutParallel();
+		assertEquals(2, ledger.getReservationCount());
+		assertEquals(2, second.getReservations().size());
+		
+		//The ladder is due on 07/05/20, the jackhammer on 07/08/20.
+		assertEquals(1, ledger.releaseEndedBefore(LocalDate.of(2020, 7, 6)));
+		assertEquals(1, ledger.getReservationCount());
+		assertTrue(ledger.isAvailable("LADW", LocalDate.of(2020, 7, 2), LocalDate.of(2020, 7, 5)));
+		assertFalse(ledger.isAvailable("JAKR", LocalDate.of(2020, 7, 8), LocalDate.of(2020, 7, 8)));
+		second.releaseReservations();
+		assertEquals(0, ledger.getReservationCount());
+	}
+	
+	@Test
+	public void reserveToolsAgainWhileOthersBook() throws Exception {
+		final ReservationLedger ledger = new ReservationLedger();
+		Tool jackhammer = ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0");
+		Checkout checkout = new Checkout(Arrays.asList(new CheckoutData(jackhammer, 4, 0, LocalDate.of(2020, 7, 2))), null, ledger);
+		checkout.doCheckout();
+		
+		//Another terminal keeps trying to book a day of the jackhammer while the checkout is run again.
+		final AtomicBoolean done = new AtomicBoolean();
+		final LongAdder booked = new LongAdder();
+		Thread terminal = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(!done.get()) {
+					try {
+						ledger.reserve(new Reservation("JAKR", LocalDate.of(2020, 7, 3), LocalDate.of(2020, 7, 3)));
+						booked.increment();
+					} catch (ReservationConflictException e) {
+						//Still booked by the checkout.
+					}
+				}
+			}
+		});
+		terminal.start();
+		try {
+			for(int i = 0; i < 2000; i++) {
+				checkout.doCheckout();
+				if(i % 100 == 0) {
+					Thread.yield();
+				}
+			}
+		} finally {
+			done.set(true);
+			terminal.join();
+		}
+		assertEquals(0, booked.sum());
+		assertEquals(1, ledger.getReservationCount());
+		
+		//When the new bookings conflict, the previous ones are kept.
+		Reservation previous = checkout.getReservations().get(0);
+		ledger.reserve(new Reservation("LADW", LocalDate.of(2020, 7, 3), LocalDate.of(2020, 7, 3)));
+		try {
+			ledger.rebook(checkout.getReservations(), Arrays.asList(new Reservation("JAKR", LocalDate.of(2020, 7, 2), LocalDate.of(2020, 7, 6)), 
+					new Reservation("LADW", LocalDate.of(2020, 7, 2), LocalDate.of(2020, 7, 4))));
+			fail("The ladder is already booked");
+		} catch (ReservationConflictException e) {
+			assertEquals(1, e.getIndex());
+		}
+		assertSame(previous, ledger.getOverlapping("JAKR", LocalDate.of(2020, 7, 2), LocalDate.of(2020, 7, 2)).get(0));
+		assertEquals(2, ledger.getReservationCount());
+	}
+	
+	@Test
+	public void reserveToolsConcurrently() throws Exception {
+		final ReservationLedger ledger = new ReservationLedger(4);
+		final LongAdder booked = new LongAdder();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < 8; i++) {
+			//Half of the orders list the tools in the other order, which deadlocks without ordered locking.
+			final String[] codes = i % 2 == 0 ? new String[] {"JAKR", "LADW"} : new String[] {"LADW", "JAKR"};
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int day = 0; day < 200; day++) {
+						LocalDate checkoutDate = LocalDate.of(2020, 1, 1).plusDays(day);
+						try {
+							ledger.reserveAll(Arrays.asList(new Reservation(codes[0], checkoutDate, checkoutDate), 
+									new Reservation(codes[1], checkoutDate, checkoutDate)));
+							booked.increment();
+						} catch (ReservationConflictException e) {
+							//Booked by another thread.
+						}
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join(10000);
+			assertFalse("Deadlocked", thread.isAlive());
+		}
+		//Each day is booked by exactly one order.
+		assertEquals(200, booked.sum());
+		assertEquals(400, ledger.getReservationCount());
+	}
 }
@@ -0,0 +1,134 @@
+package toolrental.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import toolrental.AppErrorMessage;
+import toolrental.DayClassIndex;
+import toolrental.HolidayCalendar;
+import toolrental.HolidayRule;
+import toolrental.ToolRentalException;
+import toolrental.ToolRentalUtils;
+
+/**
+ * Class to test the holiday lookups in HolidayCalendar.java.
+ * @author Binod
+ *
+ */
+public class TestHolidayCalendar {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void holidaysOfYear() {
+		HolidayCalendar calendar = HolidayCalendar.getDefault();
+
+		//2020: July 4th is a Saturday, so it is observed on Friday July 3rd. Labor Day is Sept 7th.
+		int[] holidays = calendar.getHolidays(2020);
+		assertEquals(2, holidays.length);
+		assertEquals(LocalDate.of(2020, 7, 3).toEpochDay(), holidays[0]);
+		assertEquals(LocalDate.of(2020, 9, 7).toEpochDay(), holidays[1]);
+
+		//The holidays of a year are computed only once.
+		assertSame(holidays, calendar.getHolidays(2020));
+	}
+
+	@Test
+	public void isHoliday() {
+		HolidayCalendar calendar = HolidayCalendar.getDefault();
+
+		//Sunday July 4th 2021 is observed on Monday the 5th.
+		assertFalse(calendar.isHoliday(LocalDate.of(2021, 7, 4)));
+		assertTrue(calendar.isHoliday(LocalDate.of(2021, 7, 5)));
+		//Labor Day 2022.
+		assertTrue(calendar.isHoliday(LocalDate.of(2022, 9, 5)));
+		assertFalse(calendar.isHoliday(LocalDate.of(2022, 9, 6)));
+
+		//Observed holidays never fall on a weekend.
+		for(LocalDate date = LocalDate.of(2000, 1, 1); date.getYear() < 2040; date = date.plusDays(1)) {
+			if(calendar.isHoliday(date)) {
+				assertTrue(date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY);
+			}
+		}
+	}
+
+	@Test
+	public void countHolidays() {
+		HolidayCalendar calendar = HolidayCalendar.getDefault();
+
+		//Start date is excluded, end date is included.
+		assertEquals(1, calendar.countHolidays(LocalDate.of(2020, 7, 2), LocalDate.of(2020, 7, 3)));
+		assertEquals(0, calendar.countHolidays(LocalDate.of(2020, 7, 3), LocalDate.of(2020, 7, 4)));
+		//A range across year end covers the holidays of both years.
+		assertEquals(4, calendar.countHolidays(LocalDate.of(2020, 6, 1), LocalDate.of(2021, 12, 31)));
+	}
+
+	@Test
+	public void holidayRules() throws ToolRentalException {
+		//Memorial Day, the last Monday in May.
+		assertEquals(LocalDate.of(2021, 5, 31), HolidayRule.parse("last, MONDAY, MAY").getDate(2021));
+		//Thanksgiving, the fourth Thursday in November.
+		assertEquals(LocalDate.of(2021, 11, 25), HolidayRule.parse("nth, 4, thursday, 11").getDate(2021));
+		//Christmas 2021 falls on Saturday, so it is observed on Friday the 24th.
+		assertEquals(LocalDate.of(2021, 12, 24), HolidayRule.parse("fixed, DECEMBER, 25, observed").getDate(2021));
+		assertEquals(LocalDate.of(2021, 12, 25), HolidayRule.parse("fixed, DECEMBER, 25").getDate(2021));
+	}
+
+	@Test
+	public void calendarFromRules() throws ToolRentalException {
+		List<HolidayRule> rules = new ArrayList<HolidayRule>();
+		rules.add(HolidayRule.parse("fixed, JANUARY, 1, observed"));
+		rules.add(HolidayRule.parse("fixed, DECEMBER, 25"));
+		rules.add(HolidayRule.parse("last, MONDAY, MAY"));
+		HolidayCalendar calendar = new HolidayCalendar(rules);
+
+		//New Year's Day 2022 falls on Saturday, so it is observed on Friday December 31st 2021.
+		assertTrue(calendar.isHoliday(LocalDate.of(2021, 12, 31)));
+		//Christmas 2021 falls on Saturday and is not shifted, so it is not observed at all.
+		assertFalse(calendar.isHoliday(LocalDate.of(2021, 12, 25)));
+		assertTrue(calendar.isHoliday(LocalDate.of(2021, 5, 31)));
+		//Independence Day is not one of the rules.
+		assertFalse(calendar.isHoliday(LocalDate.of(2021, 7, 5)));
+
+		//Range from Dec 30 2021 to Jan 3 2022: Friday Dec 31 is a holiday, Jan 1 and 2 are weekend days.
+		int[] billableDays = ToolRentalUtils.countBillableDays(LocalDate.of(2021, 12, 29), LocalDate.of(2022, 1, 3), calendar);
+		assertArrayEquals(new int[] { 2, 2, 1 }, billableDays);
+		assertArrayEquals(ToolRentalUtils.countBillableDaysByIteration(LocalDate.of(2021, 12, 29), LocalDate.of(2022, 1, 3), calendar), billableDays);
+	}
+
+	@Test
+	public void invalidHolidayRule() throws ToolRentalException {
+		thrown.expect(ToolRentalException.class);
+		thrown.expectMessage(AppErrorMessage.INVALID_HOLIDAY_RULE);
+
+		HolidayRule.parse("fixed, FEBRUARY, 30");
+	}
+
+	@Test
+	public void dayClassIndex() {
+		//Small window so that ranges inside, across the edges, and outside of it are all covered.
+		DayClassIndex index = new DayClassIndex(HolidayCalendar.getDefault(), 2015, 2017);
+		LocalDate firstStart = LocalDate.of(2014, 10, 1);
+		for(int startOffset = 0; startOffset < 4 * 365; startOffset += 5) {
+			LocalDate start = firstStart.plusDays(startOffset);
+			for(int dayCount = 0; dayCount <= 200; dayCount += 3) {
+				LocalDate end = start.plusDays(dayCount);
+				assertArrayEquals(start + " to " + end, 
+						ToolRentalUtils.countBillableDaysByIteration(start, end), index.countBillableDays(start, end));
+			}
+		}
+	}
+}
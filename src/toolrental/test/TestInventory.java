@@ -0,0 +1,448 @@
+package toolrental.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import toolrental.AppErrorMessage;
+import toolrental.Checkout;
+import toolrental.CheckoutData;
+import toolrental.InventoryDelta;
+import toolrental.InventoryFileLoader;
+import toolrental.InventoryIndex;
+import toolrental.InventoryLoadException;
+import toolrental.InventorySnapshot;
+import toolrental.InventoryWatcher;
+import toolrental.StockLevels;
+import toolrental.Tool;
+import toolrental.ToolRentalException;
+import toolrental.ToolRentalUtils;
+import toolrental.ToolTypeRegistry;
+
+/**
+ * Class to test the inventory of tools.
+ * @author Binod
+ *
+ */
+public class TestInventory {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static List<Tool> createTools() throws ToolRentalException {
+		return Arrays.asList(
+				ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"),
+				ToolRentalUtils.validateAndCreateTool("Chainsaw,Stihl,CHNS,1.49,0,1.49"),
+				ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0"),
+				ToolRentalUtils.validateAndCreateTool("Jackhammer,DeWalt,JAKD,2.99,0,0"));
+	}
+
+	@Test
+	public void toolEquality() throws ToolRentalException {
+		//Tools are equal when their tool codes are equal.
+		Tool tool = ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0");
+		Tool sameCode = ToolRentalUtils.validateAndCreateTool("Ladder,Little Giant,ladw,2.49,2.49,0");
+		Tool otherCode = ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADX,1.99,1.99,0");
+		assertTrue(tool.equals(sameCode));
+		assertEquals(tool.hashCode(), sameCode.hashCode());
+		assertFalse(tool.equals(otherCode));
+	}
+
+	@Test
+	public void inventoryLookups() throws ToolRentalException {
+		InventoryIndex index = new InventoryIndex(createTools());
+
+		assertEquals(4, index.size());
+		assertEquals("CHNS", index.getTool("chns").getCode());
+		assertTrue(index.containsTool("JAKD"));
+		assertNull(index.getTool("XXXX"));
+
+		assertEquals(2, index.getToolsByType("JACKHAMMER").size());
+		assertEquals("JAKR", index.getToolsByType("Jackhammer").get(0).getCode());
+		assertSame(index.getTool("LADW"), index.getToolsByBrand("werner").get(0));
+		assertTrue(index.getToolsByBrand("Makita").isEmpty());
+	}
+
+	@Test
+	public void duplicateToolCode() throws ToolRentalException {
+		thrown.expect(ToolRentalException.class);
+		thrown.expectMessage(AppErrorMessage.DUPLICATE_TOOL_CODE + "LADW");
+
+		List<Tool> tools = new ArrayList<Tool>(createTools());
+		tools.add(ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"));
+		new InventoryIndex(tools);
+	}
+
+	@Test
+	public void checkoutOfUnknownTool() throws ToolRentalException {
+		//A tool that is not in the inventory can't be checked out.
+		thrown.expect(ToolRentalException.class);
+		thrown.expectMessage(AppErrorMessage.UNKNOWN_TOOL_CODE + "LADX");
+
+		InventoryIndex index = new InventoryIndex(createTools());
+		Tool unknownTool = ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADX,1.99,1.99,0");
+		ArrayList<CheckoutData> toolList = new ArrayList<CheckoutData>();
+		toolList.add(new CheckoutData(index.getTool("LADW"), 3, 10, LocalDate.of(2020, 7, 2)));
+		toolList.add(new CheckoutData(unknownTool, 3, 10, LocalDate.of(2020, 7, 2)));
+		new Checkout(toolList, index).doCheckout();
+	}
+
+	@Test
+	public void toolTypesAndBrandsAreShared() throws ToolRentalException {
+		ToolTypeRegistry registry = new ToolTypeRegistry();
+		Tool first = ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0", registry);
+		Tool second = ToolRentalUtils.validateAndCreateTool(" Jackhammer , Ridgid , JAKS , 2.99 , 0 , 0 ", registry);
+		Tool otherRents = ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKT,3.49,0,0", registry);
+
+		//Same rate card and brand give the same instances.
+		assertSame(first.getType(), second.getType());
+		assertSame(first.getBrand(), second.getBrand());
+		assertSame(first.getType().getToolTtype(), otherRents.getType().getToolTtype());
+		assertFalse(first.getType() == otherRents.getType());
+		assertEquals(2, registry.getToolTypeCount());
+		assertEquals(1, registry.getSharedToolTypeCount());
+		assertTrue(registry.getEstimatedBytesSaved() > 0);
+
+		//Shared tool types are priced like new ones.
+		assertEquals(ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKS,2.99,0,0").getType().getWeekdayRentUnits(),
+				second.getType().getWeekdayRentUnits());
+	}
+
+	@Test
+	public void unusedToolTypesAreDropped() throws Exception {
+		ToolTypeRegistry registry = new ToolTypeRegistry();
+		Tool kept = ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0", registry);
+		for(int i = 0; i < 100; i++) {
+			//Old prices, no longer used by any tool.
+			ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,3." + i + ",0,0", registry);
+		}
+		assertEquals(101, registry.getToolTypeCount());
+		
+		//Clear the old prices as the garbage collector would, without depending on when it runs.
+		clearReferences(registry, "toolTypes", kept.getType());
+		assertEquals(1, registry.getToolTypeCount());
+		assertSame(kept.getType(), ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKS,2.99,0,0", registry).getType());
+		
+		//A cleared price is created again when a tool uses it again.
+		assertEquals(new BigDecimal("3.5"), ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKT,3.5,0,0", registry)
+				.getType().getWeekdayRent());
+		assertEquals(2, registry.getToolTypeCount());
+	}
+
+	/**
+	 * Clears and enqueues the weak references of a map of the registry, except the one to the instance kept,
+	 * as the garbage collector does once no tool uses an instance.
+	 */
+	private static void clearReferences(ToolTypeRegistry registry, String mapName, Object kept) throws Exception {
+		Field field = ToolTypeRegistry.class.getDeclaredField(mapName);
+		field.setAccessible(true);
+		for(Object value : ((Map<?, ?>) field.get(registry)).values()) {
+			Reference<?> reference = (Reference<?>) value;
+			//Tool types are equal by name, the same instance is the one in use.
+			if(reference.get() != kept) {
+				reference.clear();
+				reference.enqueue();
+			}
+		}
+	}
+
+	@Test
+	public void loadInventoryFileInChunks() throws IOException, ToolRentalException {
+		File file = folder.newFile("tools-inventory.txt");
+		StringBuilder content = new StringBuilder("# toolType,brand,toolCode,weekDayDailyRent,weekendDailyRent,HolidayDailyRent\r\n\r\n");
+		for(int i = 0; i < 500; i++) {
+			content.append("Ladder,Werner,L").append(i).append(",1.99,1.99,0\r\n");
+		}
+		content.append("Jackhammer,Ridgid,JAKR,2.99,0,0");
+		Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+		//Small chunks, so that many lines and chunks are parsed in parallel.
+		ToolTypeRegistry registry = new ToolTypeRegistry();
+		List<Tool> tools = new InventoryFileLoader(registry, 100).load(file.toPath());
+		assertEquals(501, tools.size());
+		for(int i = 0; i < 500; i++) {
+			assertEquals("L" + i, tools.get(i).getCode());
+		}
+		assertEquals("JAKR", tools.get(500).getCode());
+		assertEquals(2, registry.getToolTypeCount());
+	}
+
+	@Test
+	public void loadInventoryFileReportsLineNumbers() throws IOException, ToolRentalException {
+		File file = folder.newFile("tools-inventory.txt");
+		StringBuilder content = new StringBuilder("# Inventory\n");
+		for(int i = 2; i <= 300; i++) {
+			if(i == 7 || i == 250) {
+				content.append("Ladder,Werner,L").append(i).append(",1.99,abc,0\n");
+			} else {
+				content.append("Ladder,Werner,L").append(i).append(",1.99,1.99,0\n");
+			}
+		}
+		Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+		try {
+			new InventoryFileLoader(null, 64).load(file.toPath());
+			fail("Invalid lines should be reported");
+		} catch (InventoryLoadException e) {
+			List<InventoryLoadException.LineError> lineErrors = e.getLineErrors();
+			assertEquals(2, lineErrors.size());
+			assertEquals(7, lineErrors.get(0).getLineNumber());
+			assertEquals(250, lineErrors.get(1).getLineNumber());
+			assertTrue(lineErrors.get(1).getMessage().contains("L250"));
+		}
+	}
+
+	@Test
+	public void inventorySnapshotRoundTrip() throws IOException, ToolRentalException {
+		List<Tool> tools = Arrays.asList(
+				ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.990,1.99,0"),
+				ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0"),
+				ToolRentalUtils.validateAndCreateTool("Jackhammer,DeWalt,JAKD,2.99,0,0"));
+		Path snapshot = folder.newFile("tools-inventory.snapshot").toPath();
+		InventorySnapshot.write(snapshot, tools, 100, 12345);
+
+		ToolTypeRegistry registry = new ToolTypeRegistry();
+		List<Tool> loaded = InventorySnapshot.read(snapshot, 100, 12345, registry);
+		assertEquals(3, loaded.size());
+		for(int i = 0; i < tools.size(); i++) {
+			assertEquals(tools.get(i).getCode(), loaded.get(i).getCode());
+			assertEquals(tools.get(i).getBrand(), loaded.get(i).getBrand());
+			assertEquals(tools.get(i).getType().getToolTtype(), loaded.get(i).getType().getToolTtype());
+			//Rents keep their scale.
+			assertEquals(tools.get(i).getType().getWeekdayRent(), loaded.get(i).getType().getWeekdayRent());
+			assertEquals(tools.get(i).getType().getWeekendRent(), loaded.get(i).getType().getWeekendRent());
+			assertEquals(tools.get(i).getType().getHolidayRent(), loaded.get(i).getType().getHolidayRent());
+		}
+		assertSame(loaded.get(1).getType(), loaded.get(2).getType());
+
+		//A snapshot of another inventory file is not used.
+		assertNull(InventorySnapshot.read(snapshot, 100, 12346, registry));
+
+		//A corrupted snapshot is reported.
+		byte[] bytes = Files.readAllBytes(snapshot);
+		bytes[bytes.length - 12] ^= 1;
+		Files.write(snapshot, bytes);
+		try {
+			InventorySnapshot.read(snapshot, 100, 12345, registry);
+			fail("Corrupted snapshot should be reported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("corrupted"));
+		}
+	}
+
+	@Test
+	public void inventoryWatcherReloadsChangedFile() throws Exception {
+		File file = folder.newFile("tools-inventory.txt");
+		final CountDownLatch reloaded = new CountDownLatch(1);
+		InventoryWatcher watcher = new InventoryWatcher(file.toPath(), new Runnable() {
+			@Override
+			public void run() {
+				reloaded.countDown();
+			}
+		}, 50);
+		try {
+			//Other files of the directory don't cause a reload.
+			Files.write(folder.newFile("other.txt").toPath(), "other".getBytes(StandardCharsets.UTF_8));
+			assertFalse(reloaded.await(300, TimeUnit.MILLISECONDS));
+
+			Files.write(file.toPath(), "Ladder,Werner,LADW,1.99,1.99,0".getBytes(StandardCharsets.UTF_8));
+			assertTrue(reloaded.await(10, TimeUnit.SECONDS));
+		} finally {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void applyInventoryDelta() throws IOException, ToolRentalException {
+		InventoryIndex index = new InventoryIndex(Arrays.asList(
+				ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"),
+				ToolRentalUtils.validateAndCreateTool("Chainsaw,Stihl,CHNS,1.49,0,1.49"),
+				ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0"),
+				ToolRentalUtils.validateAndCreateTool("Jackhammer,DeWalt,JAKD,2.99,0,0")), 1);
+		File file = folder.newFile("tools-inventory.delta");
+		Files.write(file.toPath(), Arrays.asList(
+				"# Price changes",
+				"~ Ladder,Werner,LADW,2.49,2.49,0",
+				"- chns",
+				"+ Jackhammer,Bosch,JAKB,3.49,0,0",
+				"~ Jackhammer,Ridgid,JAKD,2.99,0,0"), StandardCharsets.UTF_8);
+
+		InventoryIndex changed = index.applyDelta(InventoryDelta.read(file.toPath(), null));
+		assertEquals(2, changed.getVersion());
+		assertEquals(4, changed.size());
+		assertEquals(new BigDecimal("2.49"), changed.getTool("LADW").getType().getWeekdayRent());
+		assertNull(changed.getTool("CHNS"));
+		assertTrue(changed.getToolsByType("chainsaw").isEmpty());
+		assertEquals("JAKB", changed.getToolsByBrand("Bosch").get(0).getCode());
+		assertTrue(changed.getToolsByBrand("DeWalt").isEmpty());
+		assertEquals(2, changed.getToolsByBrand("Ridgid").size());
+		List<String> codes = new ArrayList<String>();
+		for(Tool tool : changed.getTools()) {
+			codes.add(tool.getCode());
+		}
+		assertEquals(Arrays.asList("LADW", "JAKR", "JAKD", "JAKB"), codes);
+
+		//The index the delta was applied to is not changed.
+		assertEquals(new BigDecimal("1.99"), index.getTool("LADW").getType().getWeekdayRent());
+		assertNotNull(index.getTool("CHNS"));
+
+		//Invalid changes are all reported, and nothing is applied.
+		Files.write(file.toPath(), Arrays.asList(
+				"+ Ladder,Werner,LADW,1.99,1.99,0",
+				"~ Ladder,Werner,LADZ,1.99,1.99,0",
+				"- JAKR"), StandardCharsets.UTF_8);
+		try {
+			changed.applyDelta(InventoryDelta.read(file.toPath(), null));
+			fail("Invalid changes should be reported");
+		} catch (InventoryLoadException e) {
+			assertEquals(2, e.getLineErrors().size());
+			assertEquals(1, e.getLineErrors().get(0).getLineNumber());
+			assertEquals(2, e.getLineErrors().get(1).getLineNumber());
+		}
+		assertNotNull(changed.getTool("JAKR"));
+	}
+
+	@Test
+	public void inventoryDeltasAreMerged() throws ToolRentalException {
+		InventoryIndex index = new InventoryIndex(Arrays.asList(
+				ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0")), 1);
+		//Enough changes to merge them into new base maps.
+		for(int i = 0; i < 30; i++) {
+			List<InventoryDelta.Change> changes = new ArrayList<InventoryDelta.Change>();
+			for(int j = 0; j < 50; j++) {
+				changes.add(new InventoryDelta.Change(InventoryDelta.ADD,
+						ToolRentalUtils.validateAndCreateTool("Ladder,Werner,L" + (i * 50 + j) + ",1.99,1.99,0"), null, j + 1));
+			}
+			changes.add(new InventoryDelta.Change(InventoryDelta.REMOVE, null, "L" + (i * 50), 51));
+			index = index.applyDelta(new InventoryDelta("delta " + i, changes));
+		}
+		assertEquals(31, index.getVersion());
+		assertEquals(1 + 30 * 49, index.size());
+		assertEquals(index.size(), index.getTools().size());
+		assertEquals(index.size(), index.getToolsByBrand("werner").size());
+		assertNull(index.getTool("L50"));
+		assertNotNull(index.getTool("L51"));
+	}
+
+	@Test
+	public void stockLevels() throws Exception {
+		final StockLevels stock = new StockLevels();
+		stock.addStock(ToolRentalUtils.validateAndCreateTool("Ladder,Werner,LADW,1.99,1.99,0"), 10);
+		stock.addStock(ToolRentalUtils.validateAndCreateTool("Ladder,Louisville,LADL,1.99,1.99,0"), 5);
+		stock.reserve("ladw", 3);
+		stock.pickUp("LADW", 2);
+		stock.checkout("LADL", 4);
+		stock.returnTool("LADL", 1);
+		assertEquals(7, stock.getAvailable("LADW"));
+		assertEquals(1, stock.getReserved("LADW"));
+		assertEquals(2, stock.getOut("LADW"));
+		assertEquals(8, stock.getOnHand("LADW"));
+		assertEquals(9, stock.getAvailableByType("ladder"));
+		assertEquals(1, stock.getReservedByType("Ladder"));
+		assertEquals(5, stock.getOutByType("Ladder"));
+		assertEquals(10, stock.getOnHandByType("Ladder"));
+		try {
+			stock.checkout("LADL", 3);
+			fail("Only 2 units are available");
+		} catch (ToolRentalException e) {
+			assertTrue(e.getMessage().startsWith(AppErrorMessage.NOT_ENOUGH_STOCK));
+		}
+		try {
+			stock.returnTool("LADW", 3);
+			fail("Only 2 units are out");
+		} catch (ToolRentalException e) {
+			assertTrue(e.getMessage().startsWith(AppErrorMessage.INVALID_STOCK_CHANGE));
+		}
+
+		//Many terminals checking out the last units: no unit is taken twice.
+		final LongAdder checkedOut = new LongAdder();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < 8; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j = 0; j < 100; j++) {
+						try {
+							stock.checkout("LADW", 1);
+							checkedOut.increment();
+						} catch (ToolRentalException e) {
+							//No unit left.
+						}
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(7, checkedOut.sum());
+		assertEquals(0, stock.getAvailable("LADW"));
+		assertEquals(2, stock.getAvailableByType("Ladder"));
+		assertEquals(12, stock.getOutByType("Ladder"));
+	}
+
+	@Test
+	public void inventoryDeltaDoesNotCopyTypeList() throws ToolRentalException {
+		List<Tool> tools = new ArrayList<Tool>();
+		for(int i = 0; i < 20000; i++) {
+			tools.add(ToolRentalUtils.validateAndCreateTool("Ladder,Werner,L" + i + ",1.99,1.99,0"));
+		}
+		for(int i = 0; i < 10; i++) {
+			tools.add(ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,J" + i + ",2.99,0,0"));
+		}
+		InventoryIndex index = new InventoryIndex(tools, 1);
+		List<Tool> ladders = index.getToolsByType("Ladder");
+		List<Tool> werner = index.getToolsByBrand("Werner");
+		List<Tool> jackhammers = index.getToolsByType("Jackhammer");
+
+		//One price update, as a one-line delta file would have. The ladders are not touched, and keep their lists.
+		InventoryIndex changed = index.applyDelta(new InventoryDelta("price", Arrays.asList(new InventoryDelta.Change(
+				InventoryDelta.UPDATE, ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,J2,3.49,0,0"), null, 1))));
+		assertSame(ladders, changed.getToolsByType("Ladder"));
+		assertSame(werner, changed.getToolsByBrand("Werner"));
+		assertFalse(jackhammers == changed.getToolsByType("Jackhammer"));
+		assertEquals(new BigDecimal("3.49"), changed.getToolsByType("Jackhammer").get(2).getType().getWeekdayRent());
+		assertEquals(new BigDecimal("2.99"), jackhammers.get(2).getType().getWeekdayRent());
+
+		//A ladder update changes the ladders only. The old version is not changed.
+		InventoryIndex next = changed.applyDelta(new InventoryDelta("price", Arrays.asList(new InventoryDelta.Change(
+				InventoryDelta.UPDATE, ToolRentalUtils.validateAndCreateTool("Ladder,Werner,L2,2.49,1.99,0"), null, 1))));
+		assertSame(changed.getToolsByType("Jackhammer"), next.getToolsByType("Jackhammer"));
+		assertEquals(new BigDecimal("2.49"), next.getTool("L2").getType().getWeekdayRent());
+		assertSame(next.getTool("L2"), next.getToolsByType("Ladder").get(2));
+		assertEquals(20000, next.getToolCountByType("ladder"));
+		assertEquals(new BigDecimal("1.99"), changed.getTool("L2").getType().getWeekdayRent());
+		assertSame(ladders, changed.getToolsByType("Ladder"));
+	}
+}
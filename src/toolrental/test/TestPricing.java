@@ -0,0 +1,151 @@
+package toolrental.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Random;
+
+import org.junit.Test;
+
+import toolrental.CheckoutData;
+import toolrental.FixedPointPricing;
+import toolrental.HolidayCalendar;
+import toolrental.QuoteCache;
+import toolrental.QuotePricer;
+import toolrental.QuoteResult;
+import toolrental.Tool;
+import toolrental.ToolRentalAppConfig;
+import toolrental.ToolRentalException;
+import toolrental.ToolRentalUtils;
+import toolrental.ToolType;
+
+/**
+ * Class to test the rent calculations in FixedPointPricing.java, and the caching of their results in QuoteCache.java.
+ * @author Binod
+ *
+ */
+public class TestPricing {
+
+	@Test
+	public void roundHalfUp() {
+		assertEquals(1, FixedPointPricing.roundHalfUp(149, 100));
+		assertEquals(2, FixedPointPricing.roundHalfUp(150, 100));
+		assertEquals(0, FixedPointPricing.roundHalfUp(49, 100));
+		//Ties are rounded away from zero, as RoundingMode.HALF_UP does.
+		assertEquals(-2, FixedPointPricing.roundHalfUp(-150, 100));
+		assertEquals(-1, FixedPointPricing.roundHalfUp(-149, 100));
+	}
+
+	@Test
+	public void fixedPointRents() {
+		assertTrue(new ToolType("Ladder", new BigDecimal("1.99"), new BigDecimal("1.9999"), new BigDecimal("0")).hasFixedPointRents());
+		//More than 4 decimal digits can't be represented exactly.
+		assertFalse(new ToolType("Ladder", new BigDecimal("1.99"), new BigDecimal("1.99999"), new BigDecimal("0")).hasFixedPointRents());
+	}
+
+	@Test
+	public void fixedPointMatchesBigDecimal() {
+		//Compare the fixed-point amounts with the same calculation done with BigDecimal,
+		//for random rents with up to 4 decimal digits, random day counts and every discount percent.
+		Random random = new Random(20150702L);
+		for(int i = 0; i < 2000; i++) {
+			BigDecimal weekdayRent = BigDecimal.valueOf(random.nextInt(100000), random.nextInt(5));
+			BigDecimal weekendRent = BigDecimal.valueOf(random.nextInt(100000), random.nextInt(5));
+			BigDecimal holidayRent = BigDecimal.valueOf(random.nextInt(100000), random.nextInt(5));
+			ToolType toolType = new ToolType("Test", weekdayRent, weekendRent, holidayRent);
+			int weekDays = random.nextInt(400);
+			int weekendDays = random.nextInt(160);
+			int holidays = random.nextInt(10);
+			int discountPercent = i % 101;
+
+			BigDecimal gross = ToolRentalUtils.roundCurrencyWithHalfUp(weekdayRent.multiply(new BigDecimal(weekDays))
+					.add(weekendRent.multiply(new BigDecimal(weekendDays)))
+					.add(holidayRent.multiply(new BigDecimal(holidays))));
+			BigDecimal discount = ToolRentalUtils.roundCurrencyWithHalfUp(
+					gross.multiply(new BigDecimal(discountPercent).divide(new BigDecimal(100))));
+
+			long grossCents = FixedPointPricing.grossRentCents(toolType, weekDays, weekendDays, holidays);
+			long discountCents = FixedPointPricing.discountCents(grossCents, discountPercent);
+			assertEquals(gross, FixedPointPricing.toCurrency(grossCents));
+			assertEquals(discount, FixedPointPricing.toCurrency(discountCents));
+			assertEquals(gross.subtract(discount), FixedPointPricing.toCurrency(grossCents - discountCents));
+		}
+	}
+
+	@Test
+	public void quoteCacheEviction() {
+		//Single stripe of 2 quotes, so the least recently used quote is evicted when a third one is added.
+		QuoteCache cache = new QuoteCache(2, 1);
+		ToolType ladder = new ToolType("Ladder", new BigDecimal("1.99"), new BigDecimal("1.99"), new BigDecimal("0"));
+		HolidayCalendar calendar = HolidayCalendar.getDefault();
+		QuoteResult result = new QuoteResult(LocalDate.of(2020, 7, 5), 0, 2, 1, 2,
+				new BigDecimal("3.98"), new BigDecimal("0.40"), new BigDecimal("3.58"));
+
+		cache.put(ladder, LocalDate.of(2020, 7, 2), 3, 10, calendar, result);
+		cache.put(ladder, LocalDate.of(2020, 7, 2), 4, 10, calendar, result);
+		//Rents are compared by value, and the tool type name does not matter.
+		ToolType sameRents = new ToolType("Ladder XL", new BigDecimal("1.990"), new BigDecimal("1.99"), new BigDecimal("0.00"));
+		assertSame(result, cache.get(sameRents, LocalDate.of(2020, 7, 2), 3, 10, calendar));
+
+		//The quote for 4 days is now the least recently used one.
+		cache.put(ladder, LocalDate.of(2020, 7, 2), 5, 10, calendar, result);
+		assertNull(cache.get(ladder, LocalDate.of(2020, 7, 2), 4, 10, calendar));
+		assertNotNull(cache.get(ladder, LocalDate.of(2020, 7, 2), 3, 10, calendar));
+		assertNull(cache.get(ladder, LocalDate.of(2020, 7, 2), 3, 15, calendar));
+
+		assertEquals(2, cache.size());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	public void checkoutWithQuoteCache() throws ToolRentalException {
+		QuoteCache cache = new QuoteCache(100);
+		ToolRentalAppConfig.getInstance().setQuoteCache(cache);
+		try {
+			Tool jackhammer = ToolRentalUtils.validateAndCreateTool("Jackhammer,Ridgid,JAKR,2.99,0,0");
+			for(int i = 0; i < 3; i++) {
+				//Same as scenario 6, calculated once and then taken from the cache.
+				CheckoutData data = new CheckoutData(jackhammer, 4, 50, LocalDate.of(2020, 7, 2));
+				data.doCheckoutCalculation();
+				assertEquals(new BigDecimal("2.99"), data.getGrossRentAmount());
+				assertEquals(new BigDecimal("1.50"), data.getDiscountAmount());
+				assertEquals(new BigDecimal("1.49"), data.getNetRentAmount());
+				assertEquals(1, data.getDaysCharged());
+				assertEquals(LocalDate.of(2020, 7, 6), data.getDueDate());
+			}
+		} finally {
+			ToolRentalAppConfig.getInstance().setQuoteCache(null);
+		}
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+	}
+
+	@Test
+	public void priceIsPure() throws ToolRentalException {
+		//Same terms give equal results, and the inputs are not changed.
+		ToolType chainsaw = new ToolType("Chainsaw", new BigDecimal("1.49"), new BigDecimal("0"), new BigDecimal("1.49"));
+		LocalDate checkoutDate = LocalDate.of(2015, 7, 2);
+		QuoteResult first = QuotePricer.price(chainsaw, checkoutDate, 5, 25);
+		QuoteResult second = QuotePricer.price(chainsaw, checkoutDate, 5, 25);
+
+		//Same as scenario 3.
+		assertEquals(LocalDate.of(2015, 7, 7), first.getDueDate());
+		assertEquals(2, first.getNumWeekDays());
+		assertEquals(2, first.getNumWeekendDays());
+		assertEquals(1, first.getNumHolidays());
+		assertEquals(3, first.getDaysCharged());
+		assertEquals(new BigDecimal("4.47"), first.getGrossRentAmount());
+		assertEquals(new BigDecimal("1.12"), first.getDiscountAmount());
+		assertEquals(new BigDecimal("3.35"), first.getNetRentAmount());
+		assertEquals(first.getNetRentAmount(), second.getNetRentAmount());
+		assertEquals(first.getDueDate(), second.getDueDate());
+	}
+}
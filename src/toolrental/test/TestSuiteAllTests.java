@@ -5,7 +5,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ TestUtilityMethods.class, TestCheckout.class  })
+@SuiteClasses({ TestUtilityMethods.class, TestHolidayCalendar.class, TestPricing.class, TestInventory.class, TestCheckout.class  })
 public class TestSuiteAllTests {
 
 }
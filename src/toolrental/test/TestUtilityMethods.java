@@ -6,17 +6,30 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import toolrental.ToolRentalUtils;
+import toolrental.AppSettings;
+import toolrental.DateCodec;
 import toolrental.AppErrorMessage;
 import toolrental.Tool;
 import toolrental.ToolRentalException;
+import toolrental.ToolSpecException;
+import toolrental.ToolSpecParser;
 import toolrental.ToolType;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
 
 import java.math.BigDecimal;
+import java.nio.CharBuffer;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
+import java.time.Month;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Properties;
 
 /**
  * Class to test utility methods defined in ToolRentalUtils.java.
@@ -230,4 +243,176 @@ public class TestUtilityMethods {
 		assertTrue(ToolRentalUtils.roundCurrencyWithHalfUp(bd7).equals(new BigDecimal("1.33")));		
 		
 	}
+	
+	@Test
+	public void countBillableDaysMatchesIteration() {
+		//The closed-form counting must give exactly the same result as walking the range day by day.
+		//The walk uses its own holiday rules, not the HolidayCalendar, so that a calendar bug shows up as a difference.
+		//Cover several years of start dates and rental periods from 0 days up to more than a year,
+		//so that ranges starting and ending on every day of week and around every holiday are included.
+		LocalDate firstStart = LocalDate.of(2014, 12, 1);
+		for(int startOffset = 0; startOffset < 3 * 365; startOffset += 3) {
+			LocalDate start = firstStart.plusDays(startOffset);
+			for(int dayCount = 0; dayCount <= 400; dayCount += 7 + startOffset % 5) {
+				LocalDate end = start.plusDays(dayCount);
+				assertArrayEquals(start + " to " + end, 
+						countDaysOneByOne(start, end), 
+						ToolRentalUtils.countBillableDays(start, end));
+			}
+		}
+		
+		//The rules of the walk give the known observed holidays.
+		LocalDate[] observed = {LocalDate.of(2015, 7, 3), LocalDate.of(2015, 9, 7), LocalDate.of(2016, 7, 4), 
+				LocalDate.of(2016, 9, 5), LocalDate.of(2017, 7, 4), LocalDate.of(2017, 9, 4), LocalDate.of(2021, 7, 5)};
+		for(LocalDate date : observed) {
+			assertTrue(date.toString(), isObservedHoliday(date));
+		}
+		assertFalse(isObservedHoliday(LocalDate.of(2015, 7, 4)));
+		assertFalse(isObservedHoliday(LocalDate.of(2021, 7, 4)));
+		assertFalse(isObservedHoliday(LocalDate.of(2017, 9, 11)));
+	}
+	
+	/**
+	 * Counts the weekdays, weekend days and holidays from the day after start to end, one day at a time.
+	 */
+	private static int[] countDaysOneByOne(LocalDate start, LocalDate end) {
+		int weekDays = 0;
+		int weekendDays = 0;
+		int holidays = 0;
+		for(LocalDate date = start.plusDays(1); !date.isAfter(end); date = date.plusDays(1)) {
+			if(date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) {
+				weekendDays++;
+			} else if(isObservedHoliday(date)) {
+				holidays++;
+			} else {
+				weekDays++;
+			}
+		}
+		return new int[] { weekDays, weekendDays, holidays };
+	}
+	
+	/**
+	 * Tells if a date is an observed holiday: Labor Day, the first Monday in September, or Independence Day,
+	 * July 4th, observed on Friday July 3rd when it falls on a Saturday and on Monday July 5th when on a Sunday.
+	 */
+	private static boolean isObservedHoliday(LocalDate date) {
+		if(date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) {
+			return false;
+		}
+		if(date.getMonth() == Month.SEPTEMBER) {
+			return date.getDayOfWeek() == DayOfWeek.MONDAY && date.getDayOfMonth() <= 7;
+		}
+		if(date.getMonth() != Month.JULY) {
+			return false;
+		}
+		switch(date.getDayOfWeek()) {
+		case FRIDAY:
+			return date.getDayOfMonth() == 3 || date.getDayOfMonth() == 4;
+		case MONDAY:
+			return date.getDayOfMonth() == 4 || date.getDayOfMonth() == 5;
+		default:
+			return date.getDayOfMonth() == 4;
+		}
+	}
+	
+	@Test 
+	public void emptyFieldOfToolSpec() throws ToolRentalException { 
+		//Empty fields are reported, with the position of the empty field.
+		thrown.expect(ToolSpecException.class);
+		thrown.expectMessage("Not enough data, brand is empty at position 7");
+		
+		ToolRentalUtils.validateAndCreateTool("Ladder, ,LADW,1.99,1.99,0");
+	}
+	
+	@Test 
+	public void parseToolSpec() throws ToolRentalException { 
+		//Rents keep the scale they are written with, like new BigDecimal(String).
+		Tool tool = new ToolSpecParser().parse(" Ladder , Werner , ladw , 1.990 , .5 , -0 ");
+		assertEquals("Ladder", tool.getType().getToolTtype());
+		assertEquals("Werner", tool.getBrand());
+		assertEquals("LADW", tool.getCode());
+		assertEquals(new BigDecimal("1.990"), tool.getType().getWeekdayRent());
+		assertEquals(new BigDecimal(".5"), tool.getType().getWeekendRent());
+		assertEquals(new BigDecimal("-0"), tool.getType().getHolidayRent());
+		
+		//Errors give the position of the invalid character.
+		try {
+			new ToolSpecParser().parse("Ladder,Werner,LADW,1.99,1.9.9,0");
+			fail("Invalid number should be reported");
+		} catch (ToolSpecException e) {
+			assertEquals(27, e.getPosition());
+		}
+		try {
+			new ToolSpecParser().parse("Ladder,Werner,LADW,1.99,1.99,0,0");
+			fail("Extra field should be reported");
+		} catch (ToolSpecException e) {
+			assertEquals(30, e.getPosition());
+		}
+	}
+	
+	@Test 
+	public void parseAppSettings() throws ToolRentalException { 
+		Properties prop = new Properties();
+		prop.setProperty(AppSettings.DATE_FORMAT_KEY, " yyyy-MM-dd ");
+		prop.setProperty(AppSettings.QUOTE_CACHE_SIZE_KEY, "100");
+		prop.setProperty(AppSettings.CALCULATION_TRACE_KEY, "TRUE");
+		AppSettings settings = AppSettings.parse(prop);
+		assertEquals("yyyy-MM-dd", settings.getDateFormatPattern());
+		assertEquals("2020-07-02", ToolRentalUtils.formatDate(LocalDate.of(2020, 7, 2), settings.getDateCodec()));
+		assertEquals(100, settings.getQuoteCacheSize());
+		assertTrue(settings.isCalculationTrace());
+		assertFalse(settings.isInventoryHotReload());
+		assertTrue(settings.getHolidayRules().isEmpty());
+		
+		assertEquals("07/02/20", ToolRentalUtils.formatDate(LocalDate.of(2020, 7, 2), 
+				AppSettings.getDefaults().getDateCodec()));
+	}
+	
+	@Test 
+	public void invalidDateFormatSetting() throws ToolRentalException { 
+		//mm is for minutes, which a date does not have, so the pattern is rejected when loaded.
+		Properties prop = new Properties();
+		prop.setProperty(AppSettings.DATE_FORMAT_KEY, "mm/dd/yy");
+		thrown.expect(ToolRentalException.class);
+		thrown.expectMessage(AppErrorMessage.INVALID_CONFIG_VALUE + AppSettings.DATE_FORMAT_KEY + " = mm/dd/yy");
+		AppSettings.parse(prop);
+	}
+	
+	@Test 
+	public void dateCodecMatchesFormatter() { 
+		//The fast path should give exactly what the formatter gives.
+		String[] patterns = {"MM/dd/yy", "yyyy-MM-dd", "MM/dd/yyyy", "dd.MM.yyyy", "MMM d, yyyy"};
+		LocalDate[] dates = {LocalDate.of(2020, 7, 2), LocalDate.of(1999, 12, 31), LocalDate.of(2100, 2, 28), 
+				LocalDate.of(5, 1, 9), LocalDate.of(12345, 6, 7)};
+		for(String pattern : patterns) {
+			DateCodec codec = DateCodec.get(pattern);
+			assertSame(codec, DateCodec.get(pattern));
+			DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern);
+			for(LocalDate date : dates) {
+				String expected = formatter.format(date);
+				assertEquals(expected, codec.format(date));
+				assertEquals("[" + expected, codec.format(date, new StringBuilder("[")).toString());
+				CharBuffer buff = CharBuffer.allocate(32);
+				codec.format(date, buff).flip();
+				assertEquals(expected, buff.toString());
+				assertEquals(LocalDate.from(formatter.parse(expected)), codec.parse(expected));
+			}
+		}
+		assertTrue(DateCodec.get("MM/dd/yy").isFast());
+		assertFalse(DateCodec.get("MMM d, yyyy").isFast());
+		
+		//Parsing a field of a line, and a day past the end of the month, as with the formatter.
+		assertEquals(LocalDate.of(2020, 7, 2), DateCodec.get("MM/dd/yy").parse("LADW,07/02/20,3", 5, 13));
+		assertEquals(LocalDate.of(2020, 2, 29), DateCodec.get("MM/dd/yy").parse("02/31/20"));
+		try {
+			DateCodec.get("MM/dd/yy").parse("13/02/20");
+			fail("Invalid month should be reported");
+		} catch (DateTimeParseException e) {
+			//Expected.
+		}
+		
+		//Invalid patterns are reported without an exception.
+		assertFalse(DateCodec.get("mm/dd/yy").isValid());
+		assertEquals("2020-07-02", ToolRentalUtils.formatDate(LocalDate.of(2020, 7, 2), "mm/dd/yy"));
+	}
 }